@@ -26,6 +26,9 @@ import android.view.ViewGroup;
 import android.view.ViewGroup.LayoutParams;
 import android.widget.FrameLayout;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
 /**
  * This is the base class for Day and Week Activities.
  */
@@ -74,6 +77,15 @@ public class AppointmentFragment extends Fragment implements AppointmentView.Mes
 
         Context context = getActivity();
         mEventLoader = new EventLoader(context);
+        mEventLoader.setEventsChangedCallback(new Runnable() {
+            @Override
+            public void run() {
+                // Only the changed days were dropped from the cache
+                if (mDayView != null) {
+                    mDayView.reloadEvents();
+                }
+            }
+        });
     }
 
     @Override
@@ -99,7 +111,7 @@ public class AppointmentFragment extends Fragment implements AppointmentView.Mes
         super.onResume();
         mEventLoader.startBackgroundThread();
         mTZUpdater.run();
-        eventsChanged();
+        mDayView.reloadEvents();
         mDayView.handleOnResume();
         mDayView.restartCurrentTimeUpdates();
     }
@@ -121,6 +133,20 @@ public class AppointmentFragment extends Fragment implements AppointmentView.Mes
         mEventLoader.stopBackgroundThread();
     }
 
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        mEventLoader.release();
+    }
+
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        if (mEventLoader != null) {
+            mEventLoader.getMetrics().dump(prefix, writer);
+        }
+    }
+
     private void goTo(Time goToTime, boolean ignoreTime, boolean animateToday) {
     	mSelectedDay.set(goToTime);
     	
@@ -152,6 +178,7 @@ public class AppointmentFragment extends Fragment implements AppointmentView.Mes
     	if (mDayView == null)
     		return;
     	
+    	mEventLoader.invalidateCache();
     	mDayView.reloadEvents();
     }
 
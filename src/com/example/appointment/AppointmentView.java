@@ -20,7 +20,9 @@ import android.annotation.SuppressLint;
 
 import android.content.Context;
 import android.content.res.Resources;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Paint.Align;
 import android.graphics.Paint.Style;
@@ -46,7 +48,10 @@ import android.widget.OverScroller;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Formatter;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -116,13 +121,22 @@ public class AppointmentView extends View {
         public void run() {
             if (mClickedEvent != null) {
                 if (mMessageHandler != null) {
-                	EventMessage eventMsg = new EventMessage();
+                	final EventMessage eventMsg = new EventMessage();
                 	eventMsg.type = EventMessage.TYPE_VIEW;
                 	eventMsg.eventId = mClickedEvent.id;
                 	eventMsg.startMillis = mClickedEvent.startMillis;
                 	eventMsg.endMillis = mClickedEvent.endMillis;
                 	eventMsg.clerkName = mAllClerks[mSelectionClerk];
-                	mMessageHandler.handleMessage(eventMsg);
+                	eventMsg.details = new EventDetails();
+                	// The grid loads leave the details out, fetch them now
+                	mEventLoader.loadEventDetailsInBackground(eventMsg.eventId,
+                	        eventMsg.details, new Runnable() {
+                	    public void run() {
+                	        if (mMessageHandler != null) {
+                	            mMessageHandler.handleMessage(eventMsg);
+                	        }
+                	    }
+                	});
                 }
             }
             mClickedEvent = null;
@@ -130,22 +144,78 @@ public class AppointmentView extends View {
         }
     };
 
+    // Every event in mEvents is held by the view, see releaseEvents()
     private ArrayList<Event> mEvents = new ArrayList<Event>();
+    private final ArrayList<Event> mReleasedEvents = new ArrayList<Event>();
+    // When loading into blocks, the events are drawn from mEventBlock instead
+    // of mEvents, through mBlockEvent so that nothing is allocated per frame.
+    private boolean mUseEventBlock;
+    private EventBlock mEventBlock;
+    private EventBlock mSpareEventBlock;
+    private final Event mBlockEvent = new Event();
+    // Whether the hours on screen are loaded and shown before the rest of the day
+    private boolean mIncrementalLoad = true;
+    // Set while mEvents only holds the first batch of the day being loaded
+    private boolean mShowingFirstBatch;
+    // Incremented by every reload, so that a late first batch is not shown
+    private int mLoadGeneration;
     private StaticLayout[] mLayouts = null;
+    // The layouts of the previous list of events, reused by the next swap
+    private StaticLayout[] mSpareLayouts;
+    // Scratch objects of swapEvents() and onTileRendered()
+    private final Rect mDirtyRect = new Rect();
+    private final Event mCellEvent = new Event();
+    // Index in mAllClerks of the clerk of each event, see computeEventClerks()
+    private int[] mEventClerks = new int[0];
+    // The indices of the events of each clerk, in the order of the events:
+    // the events of clerk c are mClerkEvents[mClerkEventStarts[c]] to
+    // mClerkEvents[mClerkEventStarts[c + 1] - 1]. The last bucket holds the
+    // events of no clerk.
+    private int[] mClerkEvents = new int[0];
+    private int[] mClerkEventStarts;
+    // Scratch array of computeClerkBuckets()
+    private int[] mClerkEventEnds;
+    private final HashMap<String, Integer> mClerkIndices;
     private int mSelectionClerk;        
     private int mSelectionHour;
 
     // Pre-allocate these objects and re-use them
     private final Rect mRect = new Rect();
-    private final RectF mRoundRect = new RectF();
     private final Rect mSelectionRect = new Rect();
     private final Paint mPaint = new Paint();
-    private final Paint mEventTextPaint = new Paint();
+    // Draws the events on the UI thread, see Painter
+    private Painter mPainter;
     private final Paint mSelectionPaint = new Paint();
     private float[] mLines;
 
     private boolean mRemeasure = true;
 
+    // The hours column and the grid of one clerk over each row of tiles,
+    // see drawGridLayer(), rendered again once these change
+    private final Bitmap[] mHoursStrips = new Bitmap[NUM_TILE_ROWS];
+    private final Bitmap[] mClerkStrips = new Bitmap[NUM_TILE_ROWS];
+    private final Rect mStripSrc = new Rect();
+    private int mGridLayerViewWidth;
+    private int mGridLayerContentHeight;
+    // Bumped whenever the strips are dropped
+    private int mGridLayerGeneration;
+
+    // Rendered tiles of the events, see drawTiles()
+    private final TileCache mTileCache = new TileCache(0);
+    private final TileRenderer mTileRenderer = new TileRenderer();
+    private boolean mUseTiles = true;
+    // What the tiles are rendered from, null once the events changed
+    private TileScene mTileScene;
+    // What the tiles were rendered for, see validateTiles()
+    private int mTileGridLayerGeneration = -1;
+    private int mTileDay;
+
+    // The clerks and hours on screen, see computeVisibleRange()
+    private int mFirstVisibleClerk;
+    private int mLastVisibleClerk;
+    private int mFirstVisibleHour;
+    private int mLastVisibleHour;
+
     private final EventLoader mEventLoader;
     protected final EventGeometry mEventGeometry;
 
@@ -155,6 +225,10 @@ public class AppointmentView extends View {
     private static final int CLERK_GAP = 1;
     private static final int HOUR_GAP = 1;
 
+    // Hours covered by a row of tiles, a divisor of 24
+    private static final int TILE_HOURS = 4;
+    private static final int NUM_TILE_ROWS = 24 / TILE_HOURS;
+
     private static int HOURS_TOP_MARGIN = 2;
     private static int HOURS_LEFT_MARGIN = 2;
     private static int HOURS_RIGHT_MARGIN = 4;
@@ -285,6 +359,8 @@ public class AppointmentView extends View {
     		public int type;
     		public long startMillis;
     		public long endMillis;
+    		// Only set for TYPE_VIEW
+    		public EventDetails details;
     	}
     	
     	void handleMessage(EventMessage eventMsg);
@@ -296,6 +372,10 @@ public class AppointmentView extends View {
 
         mResources = context.getResources();
         mAllClerks = allClerks;
+        mClerkIndices = buildClerkIndices(allClerks);
+        computeClerkBuckets(0);
+        // Events of other clerks are never drawn, don't load them
+        eventLoader.setClerks(allClerks);
         mNumShownCols = numShownCols;
         mMessageHandler = messageHandler;
 
@@ -319,10 +399,7 @@ public class AppointmentView extends View {
         mNewEventHintColor =  mResources.getColor(R.color.new_event_hint_text_color);
 
         mEventLoader = eventLoader;
-        mEventGeometry = new EventGeometry();
-        mEventGeometry.setMinEventHeight(MIN_EVENT_HEIGHT);
-        mEventGeometry.setHourGap(HOUR_GAP);
-        mEventGeometry.setCellMargin(CLERK_GAP);
+        mEventGeometry = newEventGeometry();
         mGestureDetector = new GestureDetector(context, new CalendarGestureListener());
         mCellHeight = DEFAULT_CELL_HEIGHT;
         
@@ -365,9 +442,7 @@ public class AppointmentView extends View {
         mCalendarHourLabelColor = mResources.getColor(R.color.calendar_hour_label);
         mEventTextColor = mResources.getColor(R.color.calendar_event_text_color);
 
-        mEventTextPaint.setTextSize(EVENT_TEXT_FONT_SIZE);
-        mEventTextPaint.setTextAlign(Paint.Align.LEFT);
-        mEventTextPaint.setAntiAlias(true);
+        mPainter = new Painter();
 
         int gridLineColor = mResources.getColor(R.color.calendar_grid_line_highlight_color);
         Paint p = mSelectionPaint;
@@ -400,6 +475,8 @@ public class AppointmentView extends View {
     public void handleOnResume() {
         mFutureBgColor = mFutureBgColorRes;
         mHourStrs = s24Hours;
+        // The hour labels may have changed
+        dropGridLayer();
         mSelectionMode = SELECTION_HIDDEN;
     }
 
@@ -428,16 +505,29 @@ public class AppointmentView extends View {
         return mSelectionHour * MINUTES_PER_HOUR;
     }
     
+    /**
+     * Returns the index in mAllClerks of the clerk with the given name,
+     * ignoring case, or the number of clerks if there is no such clerk.
+     */
     int getClerkIndexByName(String name) {
-    	int index = 0;
-    	for (String temp : mAllClerks) {
-    		if (temp.equalsIgnoreCase(name)) {
-    			break;
-    		}
-    		index++;
-    	}
-    	
-    	return index;
+        Integer index = mClerkIndices.get(clerkKey(name));
+        return index != null ? index : mAllClerks.length;
+    }
+
+    /**
+     * Maps the names of the clerks, ignoring case, to their index. The first
+     * clerk wins if several have the same name.
+     */
+    private static HashMap<String, Integer> buildClerkIndices(String[] clerks) {
+        HashMap<String, Integer> indices = new HashMap<String, Integer>(clerks.length * 2);
+        for (int index = clerks.length - 1; index >= 0; index--) {
+            indices.put(clerkKey(clerks[index]), index);
+        }
+        return indices;
+    }
+
+    private static String clerkKey(String name) {
+        return name.toLowerCase(Locale.ROOT);
     }
 
     public void setSelected(Time time, String loginClerk, boolean ignoreTime, boolean animateToday) {
@@ -483,6 +573,48 @@ public class AppointmentView extends View {
         
         mEdgeEffectTop.setSize(mContentWidth, width);
         mEdgeEffectBottom.setSize(mContentWidth, height);
+
+        // Room for twice the tiles on screen, the partly shown clerks and
+        // hours included
+        int tileHeight = TILE_HOURS * (mCellHeight + HOUR_GAP);
+        if (tileHeight > 0) {
+            int columns = mNumShownCols + 2;
+            int rows = height / tileHeight + 3;
+            mTileCache.setBudget(2 * columns * rows * (mCellWidth + CLERK_GAP) * tileHeight * 4);
+        }
+    }
+
+    /**
+     * Chooses whether events are loaded into a column oriented
+     * {@link EventBlock} instead of one {@link Event} per instance. Takes
+     * effect on the next {@link #reloadEvents()}.
+     */
+    public void setUseEventBlock(boolean useEventBlock) {
+        mUseEventBlock = useEventBlock;
+    }
+
+    /**
+     * Chooses whether the events are rendered into bitmap tiles on render
+     * threads, and kept until they change, so that drawing the view only
+     * draws the tiles instead of every event on screen.
+     */
+    public void setUseTiles(boolean useTiles) {
+        mUseTiles = useTiles;
+        if (!useTiles) {
+            mTileRenderer.cancelAll();
+            mTileCache.clear();
+            mTileScene = null;
+        }
+        invalidate();
+    }
+
+    /**
+     * Chooses whether the events overlapping the hours on screen are loaded
+     * and shown first, before the rest of the day. Only applies when loading
+     * into a list of events.
+     */
+    public void setIncrementalLoad(boolean incrementalLoad) {
+        mIncrementalLoad = incrementalLoad;
     }
 
     public void reloadEvents() {
@@ -495,25 +627,337 @@ public class AppointmentView extends View {
 
         setSelectedEvent(null);
         mSelectedEvents.clear();
+        final int generation = ++mLoadGeneration;
+
+        if (mUseEventBlock) {
+            reloadEventBlock();
+            return;
+        }
 
         // load events in the background
         final ArrayList<Event> events = new ArrayList<Event>();
-        mEventLoader.loadEventsInBackground(1, events, mCurrentSelectedJulianDay, new Runnable() {
+        final ArrayList<Event> firstBatch = new ArrayList<Event>();
+        Runnable firstBatchCallback = null;
+        int firstMinute = 0;
+        int lastMinute = 0;
+        int hourHeight = mCellHeight + HOUR_GAP;
+        if (mIncrementalLoad && mCellHeight > 0 && mViewHeight > 0) {
+            int firstHour = Math.max(getScrollY() - CLERK_HEADER_HEIGHT, 0) / hourHeight;
+            int lastHour = (getScrollY() + mViewHeight - CLERK_HEADER_HEIGHT) / hourHeight + 1;
+            firstMinute = firstHour * MINUTES_PER_HOUR;
+            lastMinute = Math.min(lastHour * MINUTES_PER_HOUR, MINUTES_PER_DAY);
+            firstBatchCallback = new Runnable() {
+                public void run() {
+                    if (generation != mLoadGeneration) {
+                        Event.release(firstBatch);
+                        return;
+                    }
+                    mShowingFirstBatch = true;
+                    swapEvents(firstBatch);
+                }
+            };
+        }
+
+        mEventLoader.loadEventsInBackground(1, events, mCurrentSelectedJulianDay,
+                firstMinute, lastMinute, firstBatch, firstBatchCallback, new Runnable() {
 
             public void run() {
-                mEvents = events;
-                // New events, new layouts
-                if (mLayouts == null || mLayouts.length < events.size()) {
-                    mLayouts = new StaticLayout[events.size()];
-                } else {
-                    Arrays.fill(mLayouts, null);
+                mShowingFirstBatch = false;
+                swapEvents(events);
+                prefetchAdjacentDays();
+            }
+        }, null);
+    }
+
+    /**
+     * Hands the events of a list that is not drawn anymore back for reuse,
+     * see Event.release(), except the ones the selection still refers to.
+     */
+    private void releaseEvents(ArrayList<Event> events) {
+        ArrayList<Event> released = mReleasedEvents;
+        int count = events.size();
+        for (int i = 0; i < count; i++) {
+            Event e = events.get(i);
+            if (e != mClickedEvent && e != mSavedClickedEvent && e != mSelectedEvent
+                    && !containsEvent(mSelectedEvents, e)) {
+                released.add(e);
+            }
+        }
+        Event.release(released);
+        released.clear();
+    }
+
+    private static boolean containsEvent(ArrayList<Event> events, Event event) {
+        int count = events.size();
+        for (int i = 0; i < count; i++) {
+            if (events.get(i) == event) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Shows a new list of events instead of the one on screen. The text
+     * layouts and rectangles of the events that did not change are carried
+     * over to the new list, and only the cells of the events that were
+     * added, removed or changed are redrawn, so that a reload bringing
+     * nothing or little new, such as the first batch of a day followed by
+     * the complete day or a sync, does not lay out every text again.
+     */
+    private void swapEvents(ArrayList<Event> events) {
+        ArrayList<Event> shownEvents = mEvents;
+        StaticLayout[] shownLayouts = mLayouts;
+        // Events drawn from a block have no layouts or rectangles to keep
+        boolean diff = mEventBlock == null && shownLayouts != null;
+        mEvents = events;
+        mEventBlock = null;
+
+        int numEvents = events.size();
+        StaticLayout[] layouts = mSpareLayouts;
+        if (layouts == null || layouts.length < numEvents) {
+            layouts = new StaticLayout[numEvents];
+        }
+        mLayouts = layouts;
+        mSpareLayouts = shownLayouts;
+        computeEventClerks(numEvents);
+        mRemeasure = true;
+        mComputeSelectedEvents = true;
+
+        if (diff) {
+            Rect dirty = mDirtyRect;
+            dirty.setEmpty();
+            carryOverEvents(shownEvents, shownLayouts, dirty);
+            invalidateTiles(dirty);
+            // The events under the selection are collected again while drawing
+            addSelectionCell(dirty);
+            invalidate(dirty);
+            Arrays.fill(shownLayouts, null);
+        } else {
+            mTileCache.invalidateAll();
+            invalidate();
+        }
+        mTileScene = null;
+        releaseEvents(shownEvents);
+    }
+
+    /**
+     * Moves the layout and rectangle of every event of shownEvents over to
+     * the equal event of mEvents, if there is one, and adds the cells of the
+     * events of either list without an equal one to dirty. Events are equal
+     * when they are the same instance with the same content.
+     */
+    private void carryOverEvents(ArrayList<Event> shownEvents, StaticLayout[] shownLayouts,
+            Rect dirty) {
+        int numShown = shownEvents.size();
+        HashMap<Long, Integer> shownByHash = new HashMap<Long, Integer>(numShown * 2);
+        for (int i = 0; i < numShown; i++) {
+            shownByHash.put(shownEvents.get(i).contentHash(), i);
+        }
+
+        boolean[] carried = new boolean[numShown];
+        int numEvents = mEvents.size();
+        for (int i = 0; i < numEvents; i++) {
+            Event e = mEvents.get(i);
+            Integer index = shownByHash.get(e.contentHash());
+            if (index != null && !carried[index]) {
+                Event shown = shownEvents.get(index);
+                if (shown.hasSameContent(e)) {
+                    carried[index] = true;
+                    if (index < shownLayouts.length) {
+                        mLayouts[i] = shownLayouts[index];
+                    }
+                    e.left = shown.left;
+                    e.right = shown.right;
+                    e.top = shown.top;
+                    e.bottom = shown.bottom;
+                    e.setColumn(shown.getColumn());
+                    e.setMaxColumns(shown.getMaxColumns());
+                    continue;
                 }
+            }
+            addEventCell(e, mEventClerks[i], dirty);
+        }
 
-                mRemeasure = true;
-                mComputeSelectedEvents = true;
-                invalidate();
+        for (int i = 0; i < numShown; i++) {
+            if (!carried[i]) {
+                Event shown = shownEvents.get(i);
+                addEventCell(shown, getClerkIndexByName(shown.title.toString()), dirty);
             }
-        }, null);
+        }
+    }
+
+    /**
+     * Adds the part of the clerk's column an event covers to dirty, in the
+     * coordinates of the scrolled content.
+     */
+    private void addEventCell(Event event, int clerkIndex, Rect dirty) {
+        if (clerkIndex < 0 || clerkIndex >= mAllClerks.length) {
+            // Not drawn
+            return;
+        }
+        int left = computeClerkLeftPosition(clerkIndex);
+        Event cell = mCellEvent;
+        event.copyTo(cell);
+        if (!mEventGeometry.computeEventRect(mCurrentSelectedJulianDay, left + 1, HOUR_GAP,
+                mCellWidth - 2, cell)) {
+            return;
+        }
+        dirty.union(left, (int) cell.top + CLERK_HEADER_HEIGHT,
+                computeClerkLeftPosition(clerkIndex + 1) + 1,
+                (int) cell.bottom + CLERK_HEADER_HEIGHT + 1);
+    }
+
+    private void addSelectionCell(Rect dirty) {
+        int top = mSelectionHour * (mCellHeight + HOUR_GAP) + CLERK_HEADER_HEIGHT;
+        dirty.union(computeClerkLeftPosition(mSelectionClerk), top,
+                computeClerkLeftPosition(mSelectionClerk + 1) + 1,
+                top + mCellHeight + 2 * HOUR_GAP);
+    }
+
+    /**
+     * Marks the tiles covering a part of the scrolled content, in the
+     * coordinates of onDraw(), to be rendered again.
+     */
+    private void invalidateTiles(Rect dirty) {
+        dirty.offset(0, -CLERK_HEADER_HEIGHT);
+        mTileCache.invalidate(dirty);
+        dirty.offset(0, CLERK_HEADER_HEIGHT);
+    }
+
+    /**
+     * Warms the loader's cache with the days before and after the selected
+     * one, which are the most likely to be shown next.
+     */
+    private void prefetchAdjacentDays() {
+        mEventLoader.prefetchEventsInBackground(mCurrentSelectedJulianDay + 1, 1);
+        mEventLoader.prefetchEventsInBackground(mCurrentSelectedJulianDay - 1, 1);
+    }
+
+    private void reloadEventBlock() {
+        // Fill the block that is not on screen, then swap the two
+        final EventBlock block = mSpareEventBlock != null ? mSpareEventBlock : new EventBlock();
+        mSpareEventBlock = null;
+        mEventLoader.loadEventBlockInBackground(1, block, mCurrentSelectedJulianDay,
+                new Runnable() {
+                    public void run() {
+                        mSpareEventBlock = mEventBlock;
+                        mEventBlock = block;
+                        ArrayList<Event> shownEvents = mEvents;
+                        mEvents = new ArrayList<Event>();
+                        mShowingFirstBatch = false;
+                        onEventsSwapped(block.size);
+                        releaseEvents(shownEvents);
+                    }
+                }, new Runnable() {
+                    public void run() {
+                        if (mSpareEventBlock == null) {
+                            mSpareEventBlock = block;
+                        }
+                    }
+                });
+    }
+
+    private void onEventsSwapped(int numEvents) {
+        // New events, new layouts
+        if (mLayouts == null || mLayouts.length < numEvents) {
+            mLayouts = new StaticLayout[numEvents];
+        } else {
+            Arrays.fill(mLayouts, null);
+        }
+        computeEventClerks(numEvents);
+
+        mRemeasure = true;
+        mComputeSelectedEvents = true;
+        mTileCache.invalidateAll();
+        mTileScene = null;
+        invalidate();
+    }
+
+    /**
+     * Matches every event to its clerk once, instead of comparing titles
+     * for every clerk on every frame. Loaded titles are pooled and the
+     * clerk names pinned in the pool, so the few distinct titles of a day
+     * are matched by reference.
+     */
+    private void computeEventClerks(int numEvents) {
+        if (mEventClerks.length < numEvents) {
+            mEventClerks = new int[numEvents];
+            mClerkEvents = new int[numEvents];
+        }
+        IdentityHashMap<CharSequence, Integer> clerkByTitle =
+                new IdentityHashMap<CharSequence, Integer>();
+        for (int index = mAllClerks.length - 1; index >= 0; index--) {
+            clerkByTitle.put(mAllClerks[index], index);
+        }
+        for (int i = 0; i < numEvents; i++) {
+            CharSequence title = getEvent(i).title;
+            Integer clerkIndex = clerkByTitle.get(title);
+            if (clerkIndex == null) {
+                clerkIndex = getClerkIndexByName(title.toString());
+                clerkByTitle.put(title, clerkIndex);
+            }
+            mEventClerks[i] = clerkIndex;
+        }
+        computeClerkBuckets(numEvents);
+    }
+
+    /**
+     * Sorts the event indices into one bucket per clerk, see mClerkEvents,
+     * so that drawing a clerk's column only visits the clerk's events.
+     */
+    private void computeClerkBuckets(int numEvents) {
+        int numBuckets = mAllClerks.length + 1;
+        if (mClerkEventStarts == null || mClerkEventStarts.length != numBuckets + 1) {
+            mClerkEventStarts = new int[numBuckets + 1];
+            mClerkEventEnds = new int[numBuckets];
+        }
+        int[] starts = mClerkEventStarts;
+        int[] ends = mClerkEventEnds;
+
+        Arrays.fill(starts, 0);
+        for (int i = 0; i < numEvents; i++) {
+            starts[mEventClerks[i] + 1]++;
+        }
+        for (int bucket = 0; bucket < numBuckets; bucket++) {
+            starts[bucket + 1] += starts[bucket];
+            ends[bucket] = starts[bucket];
+        }
+        for (int i = 0; i < numEvents; i++) {
+            mClerkEvents[ends[mEventClerks[i]]++] = i;
+        }
+    }
+
+    private int getEventCount() {
+        return mEventBlock != null ? mEventBlock.size : mEvents.size();
+    }
+
+    /**
+     * Returns the event at the given index. When drawing from a block, the
+     * returned event is reused by the next call, see {@link #retainEvent}.
+     */
+    private Event getEvent(int i) {
+        if (mEventBlock != null) {
+            mEventBlock.copyTo(i, mBlockEvent);
+            return mBlockEvent;
+        }
+        return mEvents.get(i);
+    }
+
+    /**
+     * Returns an event returned by {@link #getEvent} that can be kept around.
+     */
+    private Event retainEvent(Event event) {
+        if (event != mBlockEvent) {
+            return event;
+        }
+        Event e = Event.newInstance();
+        event.copyTo(e);
+        e.left = event.left;
+        e.right = event.right;
+        e.top = event.top;
+        e.bottom = event.bottom;
+        return e;
     }
 
     public void setEventsAlpha(int alpha) {
@@ -536,6 +980,7 @@ public class AppointmentView extends View {
             remeasure(getWidth(), getHeight());
             mRemeasure = false;
         }
+        computeVisibleRange();
         canvas.save();
 
         // offset canvas by the current drag and header position
@@ -594,6 +1039,38 @@ public class AppointmentView extends View {
         p.setAntiAlias(true);
     }
 
+    /**
+     * Finds the clerks and hours the scrolled view shows, at least partly,
+     * so that drawing can skip the others.
+     */
+    private void computeVisibleRange() {
+        int numClerks = mAllClerks.length;
+        int effectiveWidth = mViewWidth - mHoursWidth;
+        if (effectiveWidth <= 0 || mNumShownCols <= 0) {
+            mFirstVisibleClerk = 0;
+            mLastVisibleClerk = numClerks - 1;
+        } else {
+            // Inverse of computeClerkLeftPosition(), one clerk wider for rounding
+            int left = getScrollX() - mHoursWidth;
+            int right = getScrollX() + mViewWidth - mHoursWidth;
+            mFirstVisibleClerk = Math.max(left * mNumShownCols / effectiveWidth - 1, 0);
+            mLastVisibleClerk = Math.min(right * mNumShownCols / effectiveWidth + 1,
+                    numClerks - 1);
+        }
+
+        int hourHeight = mCellHeight + HOUR_GAP;
+        if (hourHeight <= 0 || mViewHeight <= 0) {
+            mFirstVisibleHour = 0;
+            mLastVisibleHour = 23;
+        } else {
+            // In the coordinates of doDraw(), below the clerk header
+            int top = getScrollY() - CLERK_HEADER_HEIGHT;
+            int bottom = getScrollY() + mViewHeight;
+            mFirstVisibleHour = Math.max(top / hourHeight - 1, 0);
+            mLastVisibleHour = Math.min(bottom / hourHeight + 1, 23);
+        }
+    }
+
     // Computes the x position for the left side of the given clerk index (base 0)
     private int computeClerkLeftPosition(int index) {
         int effectiveWidth = mViewWidth - mHoursWidth;
@@ -620,7 +1097,7 @@ public class AppointmentView extends View {
         String[] clerkNames = mAllClerks;
 
         p.setAntiAlias(true);
-        for (int index = 0; index < clerkNames.length; index++, cell++) {
+        for (int index = mFirstVisibleClerk; index <= mLastVisibleClerk; index++, cell++) {
             int color = mCalendarClerkBannerTextColor;
             p.setColor(color);
             drawClerkNameHeader(clerkNames[index], index, cell, canvas, p);
@@ -645,17 +1122,26 @@ public class AppointmentView extends View {
         Paint p = mPaint;
         Rect r = mRect;
 
-        drawBgColors(r, canvas, p);
-        drawGrids(r, canvas, p);
-        drawHours(r, canvas, p);
+        if (mComputeSelectedEvents && mCurrentSelectedJulianDay == mSelectionClerk) {
+            collectSelectedEvents(mCurrentSelectedJulianDay, HOUR_GAP);
+        }
+
+        drawFutureBackground(r, canvas, p);
+        drawGridLayer(canvas);
 
         p.setAntiAlias(false);
         int alpha = p.getAlpha();
         p.setAlpha(mEventsAlpha);
-        for (int index = 0; index < mAllClerks.length; index++) {
-            drawEvents(mCurrentSelectedJulianDay, index, HOUR_GAP, canvas, p);
+        // The tiles hold opaque events, fading ones are drawn directly
+        if (mUseTiles && mEventsAlpha == 255) {
+            drawTiles(canvas);
+        } else {
+            for (int index = mFirstVisibleClerk; index <= mLastVisibleClerk; index++) {
+                drawEvents(mCurrentSelectedJulianDay, index, HOUR_GAP, mFirstVisibleHour,
+                        mLastVisibleHour, canvas, p);
+            }
         }
-        
+
         if (mCurrentSelectedJulianDay == mTodayJulianDay) {
             int lineY = mCurrentTime.hour * (mCellHeight + HOUR_GAP)
                     + ((mCurrentTime.minute * mCellHeight) / 60) + 1;
@@ -670,6 +1156,184 @@ public class AppointmentView extends View {
         drawSelectedRect(r, canvas, p);
     }
 
+    /**
+     * Draws the events of the clerks and hours on screen from their tiles,
+     * over the grid. A tile covers one clerk over TILE_HOURS hours. Tiles
+     * that are new or out of date are queued to the render threads, and
+     * show the grid, or what they showed before, until they are rendered.
+     */
+    private void drawTiles(Canvas canvas) {
+        validateTiles();
+        int tileHeight = TILE_HOURS * (mCellHeight + HOUR_GAP);
+        int firstRow = mFirstVisibleHour / TILE_HOURS;
+        int lastRow = mLastVisibleHour / TILE_HOURS;
+        for (int row = firstRow; row <= lastRow; row++) {
+            int top = row * tileHeight;
+            // The events of the last hour may end on the bottom grid line
+            int bottom = top + tileHeight + (row == NUM_TILE_ROWS - 1 ? HOUR_GAP : 0);
+            for (int index = mFirstVisibleClerk; index <= mLastVisibleClerk; index++) {
+                drawTile(canvas, index, row, computeClerkLeftPosition(index), top,
+                        computeClerkLeftPosition(index + 1), bottom);
+            }
+        }
+        mTileCache.trim();
+    }
+
+    private void drawTile(Canvas canvas, int clerkIndex, int row, int left, int top,
+            int right, int bottom) {
+        if (right <= left || bottom <= top) {
+            return;
+        }
+        TileCache.Tile tile = mTileCache.obtain(clerkIndex * NUM_TILE_ROWS + row,
+                left, top, right, bottom);
+        if (!tile.valid && tile.requestedVersion != tile.version) {
+            requestTile(tile, clerkIndex, row);
+        }
+        if (tile.bitmap != null) {
+            canvas.drawBitmap(tile.bitmap, left, top, null);
+        }
+    }
+
+    /**
+     * Queues the rendering of a tile, unless the clerk has no event over
+     * its hours.
+     */
+    private void requestTile(TileCache.Tile tile, int clerkIndex, int row) {
+        TileScene scene = mTileScene;
+        // With an hour of slack for the minimum event height
+        int firstMinute = (row * TILE_HOURS - 1) * MINUTES_PER_HOUR;
+        int lastMinute = (row * TILE_HOURS + TILE_HOURS + 1) * MINUTES_PER_HOUR;
+        if (!scene.hasEvents(clerkIndex, firstMinute, lastMinute)) {
+            // Nothing to render, the grid shows through
+            mTileCache.setBitmap(tile, null);
+            tile.valid = true;
+            return;
+        }
+
+        TileJob job = new TileJob(this, scene, tile, clerkIndex,
+                computeClerkLeftPosition(clerkIndex), firstMinute, lastMinute);
+        job.bitmap = mTileCache.takeBitmap(job.width, job.height);
+        tile.requestedVersion = tile.version;
+        mTileRenderer.render(job);
+    }
+
+    /**
+     * Shows a rendered tile, unless it changed or went away meanwhile.
+     */
+    private void onTileRendered(TileJob job, boolean rendered) {
+        TileCache.Tile tile = job.tile;
+        if (tile.requestedVersion == job.version) {
+            tile.requestedVersion = -1;
+        }
+        if (!rendered || tile.version != job.version || !mTileCache.contains(tile)) {
+            if (job.bitmap != null) {
+                mTileCache.recycleBitmap(job.bitmap);
+                mTileCache.trim();
+            }
+            return;
+        }
+        mTileCache.setBitmap(tile, job.bitmap);
+        tile.valid = true;
+        mTileCache.trim();
+
+        Rect dirty = mDirtyRect;
+        dirty.set(tile.bounds);
+        dirty.offset(0, CLERK_HEADER_HEIGHT);
+        invalidate(dirty);
+    }
+
+    /**
+     * Renders the events of a tile on a render thread, over a transparent
+     * background, from what the job was given only.
+     */
+    private static void renderTile(TileJob job, Painter painter) {
+        TileScene scene = job.scene;
+        Bitmap bitmap = job.bitmap;
+        if (bitmap == null) {
+            bitmap = Bitmap.createBitmap(job.width, job.height, Bitmap.Config.ARGB_8888);
+            job.bitmap = bitmap;
+        }
+        bitmap.eraseColor(Color.TRANSPARENT);
+
+        Canvas canvas = painter.canvas;
+        Paint p = painter.paint;
+        canvas.setBitmap(bitmap);
+        canvas.save();
+        canvas.translate(-job.left, -job.top);
+        p.setAntiAlias(false);
+
+        int left = job.clerkLeft + 1;
+        int cellWidth = scene.cellWidth - 2;
+        Event event = painter.event;
+        int bucketEnd = scene.clerkEventStarts[job.clerkIndex + 1];
+        for (int n = scene.clerkEventStarts[job.clerkIndex]; n < bucketEnd; n++) {
+            int i = scene.clerkEvents[n];
+            if (!overlapsMinutes(scene.events[i], scene.day, job.firstMinute, job.lastMinute)) {
+                continue;
+            }
+            // The events are shared with the render threads of the tiles above and below
+            scene.events[i].copyTo(event);
+            if (!scene.geometry.computeEventRect(scene.day, left, HOUR_GAP, cellWidth, event)) {
+                continue;
+            }
+
+            StaticLayout layout = scene.layouts.get(i);
+            StaticLayout drawn = drawEvent(event, layout, 255, canvas, p, painter);
+            if (drawn != layout) {
+                scene.layouts.compareAndSet(i, layout, drawn);
+            }
+        }
+
+        canvas.restore();
+        canvas.setBitmap(null);
+    }
+
+    /**
+     * Starts the tiles over when they cannot be shown anymore, once the
+     * selected day or the size of the cells changed, and copies what the
+     * tiles are rendered from again once the events changed.
+     */
+    private void validateTiles() {
+        validateGridLayer();
+        if (mGridLayerGeneration != mTileGridLayerGeneration
+                || mCurrentSelectedJulianDay != mTileDay) {
+            mTileRenderer.cancelAll();
+            mTileCache.discardAll();
+            mTileScene = null;
+            mTileGridLayerGeneration = mGridLayerGeneration;
+            mTileDay = mCurrentSelectedJulianDay;
+        }
+        if (mTileScene == null) {
+            mTileScene = new TileScene(this);
+        }
+    }
+
+    /**
+     * Collects the events under the selected hour into mSelectedEvents.
+     */
+    private void collectSelectedEvents(int day, int top) {
+        EventGeometry geometry = mEventGeometry;
+        Rect selectionArea = mSelectionRect;
+        int cellWidth = mCellWidth - 2;
+        int numClerks = mAllClerks.length;
+        for (int clerkIndex = 0; clerkIndex < numClerks; clerkIndex++) {
+            int left = computeClerkLeftPosition(clerkIndex) + 1;
+            selectionArea.top = top + mSelectionHour * (mCellHeight + HOUR_GAP);
+            selectionArea.bottom = selectionArea.top + mCellHeight;
+            selectionArea.left = left;
+            selectionArea.right = selectionArea.left + cellWidth;
+
+            int bucketEnd = mClerkEventStarts[clerkIndex + 1];
+            for (int n = mClerkEventStarts[clerkIndex]; n < bucketEnd; n++) {
+                Event event = getEvent(mClerkEvents[n]);
+                if (geometry.computeEventRect(day, left, top, cellWidth, event)
+                        && geometry.eventIntersectsSelection(event, selectionArea)) {
+                    mSelectedEvents.add(retainEvent(event));
+                }
+            }
+        }
+    }
+
     private void drawSelectedRect(Rect r, Canvas canvas, Paint p) {
         // Draw a highlight on the selected hour (if needed)
         if (mSelectionMode != SELECTION_HIDDEN) {
@@ -703,11 +1367,12 @@ public class AppointmentView extends View {
         }
     }
 
-    private void drawHours(Rect r, Canvas canvas, Paint p) {
+    private void drawHours(Canvas canvas, Paint p, int firstHour, int lastHour) {
     	setupHourTextPaint(p);
-        int y = HOUR_GAP + mHoursTextHeight + HOURS_TOP_MARGIN;
+        int y = HOUR_GAP + mHoursTextHeight + HOURS_TOP_MARGIN
+                + firstHour * (mCellHeight + HOUR_GAP);
 
-        for (int i = 0; i < 24; i++) {
+        for (int i = firstHour; i <= lastHour; i++) {
             String time = mHourStrs[i];
             canvas.drawText(time, mHoursWidth / 2, y, p);
             y += mCellHeight + HOUR_GAP;
@@ -735,25 +1400,31 @@ public class AppointmentView extends View {
         canvas.drawText(clearkName, x, y, p);
     }
 
-    private void drawGrids(Rect r, Canvas canvas, Paint p) {
+    /**
+     * Draws the grid lines around the cells of the given clerks and hours.
+     */
+    private void drawGrids(Canvas canvas, Paint p, int firstClerk, int lastClerk,
+            int firstHour, int lastHour) {
         Paint.Style savedStyle = p.getStyle();
 
-        final float stopX = computeClerkLeftPosition(mAllClerks.length);
+        final float startX = firstClerk == 0
+                ? GRID_LINE_LEFT_MARGIN : computeClerkLeftPosition(firstClerk);
+        final float stopX = computeClerkLeftPosition(lastClerk + 1);
         float y = 0;
         final float deltaY = mCellHeight + HOUR_GAP;
         int linesIndex = 0;
-        final float startY = 0;
-        final float stopY = mContentHeight;
+        final float startY = firstHour * deltaY;
+        final float stopY = Math.min((lastHour + 1) * deltaY + HOUR_GAP, mContentHeight);
         float x = mHoursWidth;
 
         // Draw the inner horizontal grid lines
         p.setColor(mCalendarGridLineInnerHorizontalColor);
         p.setStrokeWidth(GRID_LINE_INNER_WIDTH);
         p.setAntiAlias(false);
-        y = 0;
+        y = startY;
         linesIndex = 0;
-        for (int hour = 0; hour <= 24; hour++) {
-            mLines[linesIndex++] = GRID_LINE_LEFT_MARGIN;
+        for (int hour = firstHour; hour <= lastHour + 1; hour++) {
+            mLines[linesIndex++] = startX;
             mLines[linesIndex++] = y;
             mLines[linesIndex++] = stopX;
             mLines[linesIndex++] = y;
@@ -766,7 +1437,7 @@ public class AppointmentView extends View {
         }
 
         // Draw the inner vertical grid lines
-        for (int index = 0; index <= mAllClerks.length; index++) {
+        for (int index = firstClerk; index <= lastClerk + 1; index++) {
             x = computeClerkLeftPosition(index);
             mLines[linesIndex++] = x;
             mLines[linesIndex++] = startY;
@@ -781,32 +1452,145 @@ public class AppointmentView extends View {
     }
 
     /**
-     * @param r
-     * @param canvas
-     * @param p
+     * Draws the parts of the scrolled content on screen that only change
+     * with the size of the view or of its cells: the background of the
+     * hours column, the grid lines and the hour labels. They are rendered
+     * once into a strip of the hours column and a strip of one clerk's
+     * grid per row of tiles, and the clerk's strip is drawn once per clerk.
+     * The background of the future, which moves with the current time, is
+     * drawn under them separately.
      */
-    private void drawBgColors(Rect r, Canvas canvas, Paint p) {
-        // Draw the hours background color
-        r.top = 0;
-        r.bottom = mContentHeight;
-        r.left = 0;
-        r.right = mHoursWidth;
-        p.setColor(mBgColor);
+    private void drawGridLayer(Canvas canvas) {
+        validateGridLayer();
+        int numClerks = mAllClerks.length;
+        int tileHeight = TILE_HOURS * (mCellHeight + HOUR_GAP);
+        int firstRow = mFirstVisibleHour / TILE_HOURS;
+        int lastRow = mLastVisibleHour / TILE_HOURS;
+        for (int row = firstRow; row <= lastRow; row++) {
+            int top = row * tileHeight;
+            if (getScrollX() < mHoursWidth) {
+                Bitmap strip = getGridStrip(row, true);
+                if (strip != null) {
+                    canvas.drawBitmap(strip, 0, top, null);
+                }
+            }
+
+            Bitmap strip = getGridStrip(row, false);
+            if (strip == null) {
+                continue;
+            }
+            for (int index = mFirstVisibleClerk; index <= mLastVisibleClerk; index++) {
+                canvas.drawBitmap(strip, computeClerkLeftPosition(index), top, null);
+            }
+            if (mLastVisibleClerk == numClerks - 1) {
+                // The rightmost grid line is the left one of a clerk's strip
+                int right = computeClerkLeftPosition(numClerks);
+                Rect src = mStripSrc;
+                src.set(0, 0, 1, strip.getHeight());
+                Rect dst = mRect;
+                dst.set(right, top, right + 1, top + strip.getHeight());
+                canvas.drawBitmap(strip, src, dst, null);
+            }
+        }
+    }
+
+    /**
+     * Drops the strips of the grid once the size of the view or of its
+     * cells changed.
+     */
+    private void validateGridLayer() {
+        if (mGridLayerViewWidth != mViewWidth || mGridLayerContentHeight != mContentHeight) {
+            dropGridLayer();
+            mGridLayerViewWidth = mViewWidth;
+            mGridLayerContentHeight = mContentHeight;
+        }
+    }
+
+    private void dropGridLayer() {
+        // Not recycled, a display list may still draw them
+        Arrays.fill(mHoursStrips, null);
+        Arrays.fill(mClerkStrips, null);
+        mGridLayerGeneration++;
+    }
+
+    /**
+     * Returns the strip of the hours column or of a clerk's grid over a row
+     * of tiles, rendering it if needed, or null if the view has no size yet.
+     */
+    private Bitmap getGridStrip(int row, boolean hours) {
+        Bitmap[] strips = hours ? mHoursStrips : mClerkStrips;
+        if (strips[row] != null) {
+            return strips[row];
+        }
+
+        int numClerks = mAllClerks.length;
+        int tileHeight = TILE_HOURS * (mCellHeight + HOUR_GAP);
+        int top = row * tileHeight;
+        // The last row includes the bottom grid line
+        int height = tileHeight + (row == NUM_TILE_ROWS - 1 ? HOUR_GAP : 0);
+        int left;
+        int width;
+        int clerk = 0;
+        if (hours) {
+            left = 0;
+            width = mHoursWidth;
+        } else {
+            // The widest clerk, so that the strip leaves out its right grid
+            // line, which is the left one of the next clerk
+            width = 0;
+            for (int index = 0; index < numClerks; index++) {
+                int clerkWidth = computeClerkLeftPosition(index + 1)
+                        - computeClerkLeftPosition(index);
+                if (clerkWidth > width) {
+                    width = clerkWidth;
+                    clerk = index;
+                }
+            }
+            left = computeClerkLeftPosition(clerk);
+        }
+        if (width <= 0 || tileHeight <= 0) {
+            return null;
+        }
+
+        Bitmap strip = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(strip);
+        canvas.translate(-left, -top);
+        Paint p = mPaint;
+        int firstHour = row * TILE_HOURS;
+        int lastHour = firstHour + TILE_HOURS - 1;
+        if (hours) {
+            // Draw the hours background color
+            Rect r = mRect;
+            r.top = top;
+            r.bottom = top + height;
+            r.left = 0;
+            r.right = mHoursWidth;
+            p.setColor(mBgColor);
+            p.setStyle(Style.FILL);
+            p.setAntiAlias(false);
+            canvas.drawRect(r, p);
+            p.setAntiAlias(true);
+
+            drawGrids(canvas, p, 0, 0, firstHour, lastHour);
+            drawHours(canvas, p, firstHour, lastHour);
+        } else {
+            drawGrids(canvas, p, clerk, clerk, firstHour, lastHour);
+        }
+
+        strips[row] = strip;
+        return strip;
+    }
+
+    private void drawFutureBackground(Rect r, Canvas canvas, Paint p) {
         p.setStyle(Style.FILL);
         p.setAntiAlias(false);
-        canvas.drawRect(r, p);
 
         // Draw a white background for the time later than current time
-        if (mCurrentSelectedJulianDay >= mTodayJulianDay) {
-        	int lineY = 0;
-        	if (mCurrentSelectedJulianDay == mTodayJulianDay) {
-        		lineY = mCurrentTime.hour * (mCellHeight + HOUR_GAP)
-                        + ((mCurrentTime.minute * mCellHeight) / 60) + 1;
-        	}
-
+        int futureTop = computeFutureTop();
+        if (futureTop < mContentHeight) {
             r.left = mHoursWidth;
             r.right = mContentWidth;
-            r.top = lineY;
+            r.top = futureTop;
             r.bottom = mContentHeight;
             p.setColor(mFutureBgColor);
             canvas.drawRect(r, p);
@@ -815,6 +1599,21 @@ public class AppointmentView extends View {
         p.setAntiAlias(true);
     }
 
+    /**
+     * Returns the top of the background of the time later than the current
+     * time, or mContentHeight if the selected day is in the past.
+     */
+    private int computeFutureTop() {
+        if (mCurrentSelectedJulianDay > mTodayJulianDay) {
+            return 0;
+        }
+        if (mCurrentSelectedJulianDay < mTodayJulianDay) {
+            return mContentHeight;
+        }
+        return mCurrentTime.hour * (mCellHeight + HOUR_GAP)
+                + ((mCurrentTime.minute * mCellHeight) / 60) + 1;
+    }
+
     Event getSelectedEvent() {
         if (mSelectedEvent == null) {
             // There is no event at the selected hour, so create a new event.
@@ -860,7 +1659,7 @@ public class AppointmentView extends View {
         return maxWidth;
     }
 
-    private void setupTextRect(Rect r) {
+    private static void setupTextRect(Rect r) {
         if (r.bottom <= r.top || r.right <= r.left) {
             r.bottom = r.top;
             r.right = r.left;
@@ -879,15 +1678,11 @@ public class AppointmentView extends View {
 
 
     /**
-     * Return the layout for a numbered event. Create it if not already existing
+     * Return the layout of an event, the given one unless it is null or of
+     * another width
      */
-    private StaticLayout getEventLayout(StaticLayout[] layouts, int i, Event event, Paint paint,
+    private static StaticLayout getEventLayout(StaticLayout layout, Event event, Paint paint,
             Rect r) {
-        if (i < 0 || i >= layouts.length) {
-            return null;
-        }
-
-        StaticLayout layout = layouts[i];
         // Check if we have already initialized the StaticLayout and that
         // the width hasn't changed (due to vertical resizing which causes
         // re-layout of events at min height)
@@ -909,61 +1704,86 @@ public class AppointmentView extends View {
             // Leave a one pixel boundary on the left and right of the rectangle for the event
             layout = new StaticLayout(bob, 0, bob.length(), new TextPaint(paint), r.width(),
                     Alignment.ALIGN_NORMAL, 1.0f, 0.0f, true, null, r.width());
-
-            layouts[i] = layout;
         }
-        layout.getPaint().setAlpha(mEventsAlpha);
         return layout;
     }
 
-    private void drawEvents(int day, int clerkIndex, int top, Canvas canvas, Paint p) {
-    	String clerkName = mAllClerks[clerkIndex];
-    	
-        Paint eventTextPaint = mEventTextPaint;
+    /**
+     * Draws the events of a clerk that overlap the hours from firstHour to
+     * lastHour.
+     */
+    private void drawEvents(int day, int clerkIndex, int top, int firstHour, int lastHour,
+            Canvas canvas, Paint p) {
+        Paint eventTextPaint = mPainter.eventTextPaint;
         int left = computeClerkLeftPosition(clerkIndex) + 1;
         int cellWidth = mCellWidth - 2;
-        int cellHeight = mCellHeight;
 
-        // Use the selected hour as the selection region
-        Rect selectionArea = mSelectionRect;
-        selectionArea.top = top + mSelectionHour * (cellHeight + HOUR_GAP);
-        selectionArea.bottom = selectionArea.top + cellHeight;
-        selectionArea.left = left;
-        selectionArea.right = selectionArea.left + cellWidth;
-
-        final ArrayList<Event> events = mEvents;
-        int numEvents = events.size();
         EventGeometry geometry = mEventGeometry;
+        int[] clerkEvents = mClerkEvents;
+        int bucketEnd = mClerkEventStarts[clerkIndex + 1];
+
+        // With an hour of slack for the minimum event height
+        int firstMinute = (firstHour - 1) * MINUTES_PER_HOUR;
+        int lastMinute = (lastHour + 2) * MINUTES_PER_HOUR;
 
         int alpha = eventTextPaint.getAlpha();
         eventTextPaint.setAlpha(mEventsAlpha);
-        for (int i = 0; i < numEvents; i++) {
-            Event event = events.get(i);
-            if (clerkName != null && !clerkName.equalsIgnoreCase(event.title.toString())) {
-            	continue;
-            }
-            
-            if (!geometry.computeEventRect(day, left, top, cellWidth, event)) {
+        for (int n = mClerkEventStarts[clerkIndex]; n < bucketEnd; n++) {
+            int i = clerkEvents[n];
+            Event event = getEvent(i);
+            if (!overlapsMinutes(event, day, firstMinute, lastMinute)) {
                 continue;
             }
 
-            if (day == mSelectionClerk && mComputeSelectedEvents
-                    && geometry.eventIntersectsSelection(event, selectionArea)) {
-                mSelectedEvents.add(event);
+            if (!geometry.computeEventRect(day, left, top, cellWidth, event)) {
+                continue;
             }
 
-            Rect r = drawEventRect(event, canvas, p, eventTextPaint);
-            setupTextRect(r);
-
-            StaticLayout layout = getEventLayout(mLayouts, i, event, eventTextPaint, r);
-            drawEventText(layout, r, canvas, false);
+            mLayouts[i] = drawEvent(event, mLayouts[i], mEventsAlpha, canvas, p, mPainter);
         }
         eventTextPaint.setAlpha(alpha);
     }
 
-    private Rect drawEventRect(Event event, Canvas canvas, Paint p, Paint eventTextPaint) {
+    /**
+     * Draws an event whose rectangle was computed, with the given layout of
+     * its text if it still fits, and returns the layout it drew. Only uses
+     * the scratch objects of the painter, so that it can run on the render
+     * threads.
+     */
+    private static StaticLayout drawEvent(Event event, StaticLayout layout, int alpha,
+            Canvas canvas, Paint p, Painter painter) {
+        Rect r = drawEventRect(event, canvas, p, painter, alpha);
+        setupTextRect(r);
+
+        layout = getEventLayout(layout, event, painter.eventTextPaint, r);
+        drawEventText(layout, r, canvas, false, alpha);
+        return layout;
+    }
+
+    private static EventGeometry newEventGeometry() {
+        EventGeometry geometry = new EventGeometry();
+        geometry.setMinEventHeight(MIN_EVENT_HEIGHT);
+        geometry.setHourGap(HOUR_GAP);
+        geometry.setCellMargin(CLERK_GAP);
+        geometry.setHourHeight(mCellHeight);
+        return geometry;
+    }
+
+    /**
+     * Whether the part of an event shown on the given day overlaps the
+     * minutes from firstMinute to lastMinute.
+     */
+    private static boolean overlapsMinutes(Event event, int day, int firstMinute,
+            int lastMinute) {
+        int startTime = event.startDay < day ? 0 : event.startTime;
+        int endTime = event.endDay > day ? MINUTES_PER_DAY : event.endTime;
+        return startTime <= lastMinute && endTime >= firstMinute;
+    }
+
+    private static Rect drawEventRect(Event event, Canvas canvas, Paint p, Painter painter,
+            int alpha) {
         // Draw the Event Rect
-        RectF r = mRoundRect;
+        RectF r = painter.roundRect;
         r.top = event.top + EVENT_RECT_TOP_MARGIN; 
         r.bottom = event.bottom - EVENT_RECT_BOTTOM_MARGIN;
         r.left = event.left + EVENT_RECT_LEFT_MARGIN;
@@ -972,11 +1792,11 @@ public class AppointmentView extends View {
         p.setAntiAlias(true);  
         p.setStrokeWidth(EVENT_RECT_STROKE_WIDTH);
         p.setColor(event.color);
-        p.setAlpha(mEventsAlpha);
+        p.setAlpha(alpha);
         canvas.drawRoundRect(r, 5, 5, p);
 
         // Setup rect for drawEventText which follows
-        Rect textRect = mRect;
+        Rect textRect = painter.rect;
         textRect.top = (int) event.top + EVENT_RECT_TOP_MARGIN;
         textRect.bottom = (int) event.bottom - EVENT_RECT_BOTTOM_MARGIN;
         textRect.left = (int) event.left + EVENT_RECT_LEFT_MARGIN;
@@ -984,12 +1804,12 @@ public class AppointmentView extends View {
         return textRect;
     }
 
-    private final Pattern drawTextSanitizerFilter = Pattern.compile("[\t\n],");
+    private static final Pattern drawTextSanitizerFilter = Pattern.compile("[\t\n],");
 
     // Sanitize a string before passing it to drawText or else we get little
     // squares. For newlines and tabs before a comma, delete the character.
     // Otherwise, just replace them with a space.
-    private String drawTextSanitizer(String string, int maxEventTextLen) {
+    private static String drawTextSanitizer(String string, int maxEventTextLen) {
         Matcher m = drawTextSanitizerFilter.matcher(string);
         string = m.replaceAll(",");
 
@@ -1005,7 +1825,8 @@ public class AppointmentView extends View {
         return string.replace('\n', ' ');
     }
 
-    private void drawEventText(StaticLayout eventLayout, Rect rect, Canvas canvas, boolean center) {
+    private static void drawEventText(StaticLayout eventLayout, Rect rect, Canvas canvas,
+            boolean center, int alpha) {
         int width = rect.right - rect.left;
         int height = rect.bottom - rect.top;
 
@@ -1040,7 +1861,14 @@ public class AppointmentView extends View {
         // past the event rect. The current fix is to not draw the staticLayout
         // at all if it is completely out of bound.
         canvas.clipRect(rect);
-        eventLayout.draw(canvas);
+        // Layouts keep scratch state while drawing, and are shared by the
+        // render threads of the tiles an event spans and the UI thread
+        synchronized (eventLayout) {
+            if (eventLayout.getPaint().getAlpha() != alpha) {
+                eventLayout.getPaint().setAlpha(alpha);
+            }
+            eventLayout.draw(canvas);
+        }
         canvas.restore();
     }
 
@@ -1350,8 +2178,7 @@ public class AppointmentView extends View {
     private void findSelectedEvent(int x, int y) {
     	int selectedDay = mCurrentSelectedJulianDay;
         int cellWidth = mCellWidth;
-        ArrayList<Event> events = mEvents;
-        int numEvents = events.size();
+        int numEvents = getEventCount();
         int top = 0;
         setSelectedEvent(null);
 
@@ -1370,8 +2197,8 @@ public class AppointmentView extends View {
         EventGeometry geometry = mEventGeometry;
 
         for (int i = 0; i < numEvents; i++) {
-            Event event = events.get(i);
-            int clerkIndex = getClerkIndexByName(event.title.toString());
+            Event event = getEvent(i);
+            int clerkIndex = mEventClerks[i];
             int left = computeClerkLeftPosition(clerkIndex);
             // Compute the event rectangle.
             if (!geometry.computeEventRect(selectedDay, left, top, cellWidth, event)) {
@@ -1381,7 +2208,7 @@ public class AppointmentView extends View {
             // If the event intersects the selection region, then add it to
             // mSelectedEvents.
             if (geometry.eventIntersectsSelection(event, region)) {
-                mSelectedEvents.add(event);
+                mSelectedEvents.add(retainEvent(event));
             }
         }
 
@@ -1432,6 +2259,9 @@ public class AppointmentView extends View {
         mRemeasure = false;
         // Turn off scrolling to make sure the view is in the correct state if we fling back to it
         mScrolling = false;
+        // Let go of the tiles, they are rendered again on the next draw
+        mTileRenderer.stop();
+        mTileCache.clear();
     }
 
     private void eventClickCleanup() {
@@ -1474,6 +2304,133 @@ public class AppointmentView extends View {
         super.onDetachedFromWindow();
     }
 
+    // The painter of each render thread
+    private static final ThreadLocal<Painter> sTilePainter = new ThreadLocal<Painter>() {
+        @Override
+        protected Painter initialValue() {
+            return new Painter();
+        }
+    };
+
+    /**
+     * The scratch objects events are drawn with, one set per thread
+     * drawing them.
+     */
+    private static final class Painter {
+        final Paint paint = new Paint();
+        final Paint eventTextPaint = new Paint();
+        final Rect rect = new Rect();
+        final RectF roundRect = new RectF();
+        final Canvas canvas = new Canvas();
+        final Event event = new Event();
+
+        Painter() {
+            eventTextPaint.setTextSize(EVENT_TEXT_FONT_SIZE);
+            eventTextPaint.setTextAlign(Paint.Align.LEFT);
+            eventTextPaint.setAntiAlias(true);
+        }
+    }
+
+    /**
+     * What the tiles are rendered from, copied on the UI thread so that the
+     * render threads never read the view. Shared by the tiles until the
+     * events change.
+     */
+    private static final class TileScene {
+        final int day;
+        final int cellWidth;
+        final EventGeometry geometry;
+        // Copies of the events, bucketed by clerk like mClerkEvents
+        final Event[] events;
+        final int[] clerkEvents;
+        final int[] clerkEventStarts;
+        // The layouts of the events, starting with the ones the view kept
+        // and built by the render threads for the others
+        final AtomicReferenceArray<StaticLayout> layouts;
+
+        TileScene(AppointmentView view) {
+            day = view.mCurrentSelectedJulianDay;
+            cellWidth = view.mCellWidth;
+            geometry = newEventGeometry();
+            int numEvents = view.getEventCount();
+            events = new Event[numEvents];
+            for (int i = 0; i < numEvents; i++) {
+                Event e = new Event();
+                view.getEvent(i).copyTo(e);
+                events[i] = e;
+            }
+            clerkEvents = Arrays.copyOf(view.mClerkEvents, numEvents);
+            clerkEventStarts = view.mClerkEventStarts.clone();
+            StaticLayout[] viewLayouts = view.mLayouts;
+            if (viewLayouts != null && viewLayouts.length >= numEvents) {
+                layouts = new AtomicReferenceArray<StaticLayout>(
+                        Arrays.copyOf(viewLayouts, numEvents));
+            } else {
+                layouts = new AtomicReferenceArray<StaticLayout>(numEvents);
+            }
+        }
+
+        /**
+         * Whether the clerk has an event overlapping the given minutes.
+         */
+        boolean hasEvents(int clerkIndex, int firstMinute, int lastMinute) {
+            int bucketEnd = clerkEventStarts[clerkIndex + 1];
+            for (int n = clerkEventStarts[clerkIndex]; n < bucketEnd; n++) {
+                if (overlapsMinutes(events[clerkEvents[n]], day, firstMinute, lastMinute)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Renders the events of one tile on a render thread.
+     */
+    private static final class TileJob extends TileRenderer.Job {
+        final AppointmentView view;
+        final TileScene scene;
+        final TileCache.Tile tile;
+        // The version of the tile that is rendered
+        final int version;
+        final int left;
+        final int top;
+        final int width;
+        final int height;
+        final int clerkIndex;
+        final int clerkLeft;
+        final int firstMinute;
+        final int lastMinute;
+        // A spare bitmap of the cache, or created by the render thread
+        Bitmap bitmap;
+
+        TileJob(AppointmentView view, TileScene scene, TileCache.Tile tile, int clerkIndex,
+                int clerkLeft, int firstMinute, int lastMinute) {
+            this.view = view;
+            this.scene = scene;
+            this.tile = tile;
+            version = tile.version;
+            left = tile.bounds.left;
+            top = tile.bounds.top;
+            width = tile.bounds.width();
+            height = tile.bounds.height();
+            this.clerkIndex = clerkIndex;
+            this.clerkLeft = clerkLeft;
+            this.firstMinute = firstMinute;
+            this.lastMinute = lastMinute;
+        }
+
+        @Override
+        void render() {
+            renderTile(this, sTilePainter.get());
+        }
+
+        @Override
+        void deliver(boolean rendered) {
+            view.onTileRendered(this, rendered);
+        }
+    }
+
     class UpdateCurrentTime implements Runnable {
 
         public void run() {
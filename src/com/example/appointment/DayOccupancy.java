@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.appointment;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * Which days of a range of any length have events, and optionally how many
+ * events each clerk has on each day. Filled on the loader thread by
+ * {@link EventLoader#loadEventDaysInBackground}, and read once its callback runs.
+ *
+ * Days are kept as bits, one per day, so that a span of days is marked with
+ * a few word operations whatever its length. Counts are kept as differences
+ * between consecutive days while spans are added, and only summed up when
+ * first read, so a long event costs the same as a short one there too.
+ */
+public class DayOccupancy {
+
+    private final int mStartDay;
+    private final int mNumDays;
+    private final long[] mBits;
+
+    // Only set when counting per clerk
+    private final String[] mClerks;
+    private final HashMap<String, Integer> mClerkIndices;
+    // Day major, numDays + 1 rows of one count per clerk
+    private final int[] mCounts;
+    // Whether mCounts holds counts rather than differences
+    private boolean mCountsSummed = true;
+
+    /**
+     * @param startDay First Julian day of the range
+     * @param numDays Number of days in the range
+     */
+    public DayOccupancy(int startDay, int numDays) {
+        this(startDay, numDays, null);
+    }
+
+    /**
+     * @param startDay First Julian day of the range
+     * @param numDays Number of days in the range
+     * @param clerks Names of the clerks to count events for, or null to
+     *        only record which days have events
+     */
+    public DayOccupancy(int startDay, int numDays, String[] clerks) {
+        mStartDay = startDay;
+        mNumDays = numDays;
+        mBits = new long[(numDays + 63) >>> 6];
+        mClerks = clerks;
+        if (clerks != null) {
+            mClerkIndices = new HashMap<String, Integer>(clerks.length * 2);
+            for (int i = 0; i < clerks.length; i++) {
+                mClerkIndices.put(clerkKey(clerks[i]), i);
+            }
+            mCounts = new int[(numDays + 1) * clerks.length];
+        } else {
+            mClerkIndices = null;
+            mCounts = null;
+        }
+    }
+
+    public int getStartDay() {
+        return mStartDay;
+    }
+
+    public int getNumDays() {
+        return mNumDays;
+    }
+
+    /**
+     * Whether events are counted per clerk, see {@link #getCount}.
+     */
+    public boolean hasClerkCounts() {
+        return mClerks != null;
+    }
+
+    /**
+     * Whether the other occupancy covers the same days and counts the same
+     * clerks, so that it can be copied into this one with {@link #set}.
+     */
+    public boolean hasSameShape(DayOccupancy other) {
+        return mStartDay == other.mStartDay && mNumDays == other.mNumDays
+                && Arrays.equals(mClerks, other.mClerks);
+    }
+
+    /**
+     * Copies an occupancy of the same shape into this one.
+     */
+    public void set(DayOccupancy other) {
+        System.arraycopy(other.mBits, 0, mBits, 0, mBits.length);
+        if (mCounts != null) {
+            System.arraycopy(other.mCounts, 0, mCounts, 0, mCounts.length);
+            mCountsSummed = other.mCountsSummed;
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(mBits, 0);
+        if (mCounts != null) {
+            Arrays.fill(mCounts, 0);
+            mCountsSummed = true;
+        }
+    }
+
+    /**
+     * Marks the days from firstDay to lastDay, both included, as having an
+     * event. Days outside of the range are ignored.
+     */
+    public void addSpan(int firstDay, int lastDay) {
+        int from = Math.max(firstDay - mStartDay, 0);
+        int to = Math.min(lastDay - mStartDay, mNumDays - 1);
+        if (from > to) {
+            return;
+        }
+
+        int firstWord = from >>> 6;
+        int lastWord = to >>> 6;
+        // Shifts only use the low six bits of the distance
+        long firstMask = -1L << from;
+        long lastMask = -1L >>> (63 - (to & 63));
+        if (firstWord == lastWord) {
+            mBits[firstWord] |= firstMask & lastMask;
+        } else {
+            mBits[firstWord] |= firstMask;
+            Arrays.fill(mBits, firstWord + 1, lastWord, -1L);
+            mBits[lastWord] |= lastMask;
+        }
+    }
+
+    /**
+     * Same as {@link #addSpan(int, int)}, and also counts one event of the
+     * given clerk on each of the days, matched ignoring case. Events of
+     * unknown clerks are not counted.
+     */
+    public void addSpan(int firstDay, int lastDay, CharSequence clerk) {
+        addSpan(firstDay, lastDay);
+        if (mCounts == null || clerk == null) {
+            return;
+        }
+        Integer clerkIndex = mClerkIndices.get(clerkKey(clerk.toString()));
+        int from = Math.max(firstDay - mStartDay, 0);
+        int to = Math.min(lastDay - mStartDay, mNumDays - 1);
+        if (clerkIndex == null || from > to) {
+            return;
+        }
+
+        int numClerks = mClerks.length;
+        if (mCountsSummed) {
+            unsumCounts();
+        }
+        mCounts[from * numClerks + clerkIndex]++;
+        mCounts[(to + 1) * numClerks + clerkIndex]--;
+        mCountsSummed = false;
+    }
+
+    /**
+     * Whether the given Julian day has any event. Days outside of the range
+     * have none.
+     */
+    public boolean hasEvents(int julianDay) {
+        int i = julianDay - mStartDay;
+        if (i < 0 || i >= mNumDays) {
+            return false;
+        }
+        return (mBits[i >>> 6] & (1L << i)) != 0;
+    }
+
+    /**
+     * Returns the first day, from the given Julian day on, that has an
+     * event, or -1 if there is none until the end of the range.
+     */
+    public int nextDayWithEvents(int julianDay) {
+        int i = Math.max(julianDay - mStartDay, 0);
+        if (i >= mNumDays) {
+            return -1;
+        }
+        int word = i >>> 6;
+        long bits = mBits[word] & (-1L << i);
+        while (bits == 0) {
+            if (++word == mBits.length) {
+                return -1;
+            }
+            bits = mBits[word];
+        }
+        return mStartDay + (word << 6) + Long.numberOfTrailingZeros(bits);
+    }
+
+    /**
+     * Returns the number of days in the range that have an event.
+     */
+    public int countDaysWithEvents() {
+        int count = 0;
+        for (long bits : mBits) {
+            count += Long.bitCount(bits);
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of events of a clerk, by index in the names given
+     * to the constructor, on the given Julian day.
+     */
+    public int getCount(int julianDay, int clerkIndex) {
+        int i = julianDay - mStartDay;
+        if (mCounts == null || i < 0 || i >= mNumDays) {
+            return 0;
+        }
+        sumCounts();
+        return mCounts[i * mClerks.length + clerkIndex];
+    }
+
+    /**
+     * Returns the number of counted events of all clerks on the given Julian day.
+     */
+    public int getTotalCount(int julianDay) {
+        int i = julianDay - mStartDay;
+        if (mCounts == null || i < 0 || i >= mNumDays) {
+            return 0;
+        }
+        sumCounts();
+        int numClerks = mClerks.length;
+        int total = 0;
+        for (int n = i * numClerks; n < (i + 1) * numClerks; n++) {
+            total += mCounts[n];
+        }
+        return total;
+    }
+
+    /**
+     * Turns the differences recorded by addSpan() into counts.
+     */
+    private void sumCounts() {
+        if (mCountsSummed) {
+            return;
+        }
+        int numClerks = mClerks.length;
+        for (int n = numClerks; n < mCounts.length; n++) {
+            mCounts[n] += mCounts[n - numClerks];
+        }
+        // The last row only holds the ends of spans reaching the last day
+        Arrays.fill(mCounts, mNumDays * numClerks, mCounts.length, 0);
+        mCountsSummed = true;
+    }
+
+    /**
+     * Turns counts back into differences, to add spans after reading.
+     */
+    private void unsumCounts() {
+        int numClerks = mClerks.length;
+        for (int n = mCounts.length - 1; n >= numClerks; n--) {
+            mCounts[n] -= mCounts[n - numClerks];
+        }
+        mCountsSummed = false;
+    }
+
+    private static String clerkKey(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+}
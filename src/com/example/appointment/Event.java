@@ -22,7 +22,8 @@ import android.content.Context;
 import android.content.res.Resources;
 import android.database.Cursor;
 import android.net.Uri;
-import android.os.Debug;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
 import android.provider.CalendarContract.Attendees;
 import android.provider.CalendarContract.Calendars;
 import android.provider.CalendarContract.Events;
@@ -33,13 +34,15 @@ import android.util.Log;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
 // TODO: should Event be Parcelable so it can be passed via Intents?
 public class Event implements Cloneable {
 
     private static final String TAG = "CalEvent";
-    private static final boolean PROFILE = false;
 
     /**
      * The sort order is:
@@ -60,7 +63,80 @@ public class Event implements Cloneable {
     private static final String EVENTS_WHERE = DISPLAY_AS_ALLDAY + "=0";
     private static final String ALLDAY_WHERE = DISPLAY_AS_ALLDAY + "=1";
 
-    // The projection to use when querying instances to build a list of events
+    /**
+     * Sorts the allday events the same way as SORT_ALLDAY_BY does, for when
+     * they come out of the single query sorted by SORT_EVENTS_BY.
+     */
+    private static final Comparator<Event> ALLDAY_COMPARATOR = new Comparator<Event>() {
+        @Override
+        public int compare(Event lhs, Event rhs) {
+            if (lhs.startDay != rhs.startDay) {
+                return lhs.startDay < rhs.startDay ? -1 : 1;
+            }
+            if (lhs.endDay != rhs.endDay) {
+                return lhs.endDay > rhs.endDay ? -1 : 1;
+            }
+            return lhs.title.toString().compareTo(rhs.title.toString());
+        }
+    };
+
+    /**
+     * Sorts a whole list the way {@link #loadEvents} returns it, the events
+     * displayed as allday after the other ones.
+     */
+    private static final Comparator<Event> LOADED_COMPARATOR = new Comparator<Event>() {
+        @Override
+        public int compare(Event lhs, Event rhs) {
+            boolean lhsAllday = isDisplayedAsAllday(lhs);
+            if (lhsAllday != isDisplayedAsAllday(rhs)) {
+                return lhsAllday ? 1 : -1;
+            }
+            if (lhsAllday) {
+                return ALLDAY_COMPARATOR.compare(lhs, rhs);
+            }
+            if (lhs.startMillis != rhs.startMillis) {
+                return lhs.startMillis < rhs.startMillis ? -1 : 1;
+            }
+            if (lhs.endMillis != rhs.endMillis) {
+                return lhs.endMillis > rhs.endMillis ? -1 : 1;
+            }
+            return lhs.title.toString().compareTo(rhs.title.toString());
+        }
+    };
+
+    // Whether loadEvents() uses one instances query for both the allday and
+    // the other events instead of one query for each.
+    private static volatile boolean sSinglePassQuery = true;
+
+    /**
+     * The columns bulk loads fetch: what the grid draws and what the loader
+     * needs to sort and cache the instances. The other fields of an event
+     * are fetched on demand, see {@link #loadEventDetails}.
+     */
+    public static final String[] GRID_PROJECTION = new String[] {
+            Instances.TITLE,                 // 0
+            Instances.EVENT_LOCATION,        // 1
+            Instances.ALL_DAY,               // 2
+            Instances.DISPLAY_COLOR,         // 3 If SDK < 16, set to Instances.CALENDAR_COLOR.
+            Instances.EVENT_ID,              // 4
+            Instances.BEGIN,                 // 5
+            Instances.END,                   // 6
+            Instances.START_DAY,             // 7
+            Instances.END_DAY,               // 8
+            Instances.START_MINUTE,          // 9
+            Instances.END_MINUTE,            // 10
+            Instances.SELF_ATTENDEE_STATUS,  // 11
+            Instances.ALL_DAY + "=1 OR (" + Instances.END + "-" + Instances.BEGIN + ")>="
+                    + DateUtils.DAY_IN_MILLIS + " AS " + DISPLAY_AS_ALLDAY, // 12
+    };
+
+    /**
+     * Every column of an instance the grid used to load.
+     *
+     * @deprecated Loads now fetch {@link #GRID_PROJECTION}, and the other
+     *             fields through {@link #loadEventDetails}.
+     */
+    @Deprecated
     public static final String[] EVENT_PROJECTION = new String[] {
             Instances.TITLE,                 // 0
             Instances.EVENT_LOCATION,        // 1
@@ -85,25 +161,93 @@ public class Event implements Cloneable {
                     + DateUtils.DAY_IN_MILLIS + " AS " + DISPLAY_AS_ALLDAY, // 19
     };
 
-    // The indices for the projection array above.
+    // The indices for GRID_PROJECTION.
     private static final int PROJECTION_TITLE_INDEX = 0;
     private static final int PROJECTION_LOCATION_INDEX = 1;
     private static final int PROJECTION_ALL_DAY_INDEX = 2;
     private static final int PROJECTION_COLOR_INDEX = 3;
-    private static final int PROJECTION_TIMEZONE_INDEX = 4;
-    private static final int PROJECTION_EVENT_ID_INDEX = 5;
-    private static final int PROJECTION_BEGIN_INDEX = 6;
-    private static final int PROJECTION_END_INDEX = 7;
-    private static final int PROJECTION_START_DAY_INDEX = 9;
-    private static final int PROJECTION_END_DAY_INDEX = 10;
-    private static final int PROJECTION_START_MINUTE_INDEX = 11;
-    private static final int PROJECTION_END_MINUTE_INDEX = 12;
-    private static final int PROJECTION_HAS_ALARM_INDEX = 13;
-    private static final int PROJECTION_RRULE_INDEX = 14;
-    private static final int PROJECTION_RDATE_INDEX = 15;
-    private static final int PROJECTION_SELF_ATTENDEE_STATUS_INDEX = 16;
-    private static final int PROJECTION_ORGANIZER_INDEX = 17;
-    private static final int PROJECTION_GUESTS_CAN_INVITE_OTHERS_INDEX = 18;
+    private static final int PROJECTION_EVENT_ID_INDEX = 4;
+    private static final int PROJECTION_BEGIN_INDEX = 5;
+    private static final int PROJECTION_END_INDEX = 6;
+    private static final int PROJECTION_START_DAY_INDEX = 7;
+    private static final int PROJECTION_END_DAY_INDEX = 8;
+    private static final int PROJECTION_START_MINUTE_INDEX = 9;
+    private static final int PROJECTION_END_MINUTE_INDEX = 10;
+    private static final int PROJECTION_SELF_ATTENDEE_STATUS_INDEX = 11;
+    private static final int PROJECTION_DISPLAY_AS_ALLDAY_INDEX = 12;
+
+    // The projection used to fetch the details of a single event
+    private static final String[] DETAILS_PROJECTION = new String[] {
+            Events.HAS_ALARM,                // 0
+            Events.RRULE,                    // 1
+            Events.RDATE,                    // 2
+            Events.ORGANIZER,                // 3
+            Events.GUESTS_CAN_MODIFY,        // 4
+    };
+
+    private static final int DETAILS_HAS_ALARM_INDEX = 0;
+    private static final int DETAILS_RRULE_INDEX = 1;
+    private static final int DETAILS_RDATE_INDEX = 2;
+    private static final int DETAILS_ORGANIZER_INDEX = 3;
+    private static final int DETAILS_GUESTS_CAN_MODIFY_INDEX = 4;
+
+    // The projection used to compute the per-day signatures of loaded events
+    private static final String[] SIGNATURE_PROJECTION = new String[] {
+            Instances.TITLE,                 // 0
+            Instances.EVENT_LOCATION,        // 1
+            Instances.ALL_DAY,               // 2
+            Instances.DISPLAY_COLOR,         // 3
+            Instances.EVENT_ID,              // 4
+            Instances.BEGIN,                 // 5
+            Instances.END,                   // 6
+            Instances.START_DAY,             // 7
+            Instances.END_DAY,               // 8
+            Instances.START_MINUTE,          // 9
+            Instances.END_MINUTE,            // 10
+            Instances.SELF_ATTENDEE_STATUS,  // 11
+    };
+
+    private static final int SIGNATURE_TITLE_INDEX = 0;
+    private static final int SIGNATURE_LOCATION_INDEX = 1;
+    private static final int SIGNATURE_ALL_DAY_INDEX = 2;
+    private static final int SIGNATURE_COLOR_INDEX = 3;
+    private static final int SIGNATURE_EVENT_ID_INDEX = 4;
+    private static final int SIGNATURE_BEGIN_INDEX = 5;
+    private static final int SIGNATURE_END_INDEX = 6;
+    private static final int SIGNATURE_START_DAY_INDEX = 7;
+    private static final int SIGNATURE_END_DAY_INDEX = 8;
+    private static final int SIGNATURE_START_MINUTE_INDEX = 9;
+    private static final int SIGNATURE_END_MINUTE_INDEX = 10;
+    private static final int SIGNATURE_SELF_ATTENDEE_STATUS_INDEX = 11;
+
+    // The projection used to count instances per day and clerk
+    private static final String[] OCCUPANCY_PROJECTION = new String[] {
+            Instances.TITLE,                 // 0
+            Instances.START_DAY,             // 1
+            Instances.END_DAY,               // 2
+    };
+
+    private static final int OCCUPANCY_TITLE_INDEX = 0;
+    private static final int OCCUPANCY_START_DAY_INDEX = 1;
+    private static final int OCCUPANCY_END_DAY_INDEX = 2;
+
+    // How many rows are decoded between two checks for cancellation
+    private static final int CANCEL_CHECK_INTERVAL = 32;
+
+    // Strings of an intern generation, enough for a few busy days
+    private static final int STRING_POOL_GENERATION_SIZE = 2048;
+
+    // Shared by every load, so that instances of the same title or location
+    // share one String across loads.
+    private static final StringPool sStringPool =
+            new StringPool(STRING_POOL_GENERATION_SIZE);
+
+    // Upper bound of the events kept for reuse, see release()
+    private static final int MAX_RECYCLED_EVENTS = 1024;
+
+    // Guards sRecycled and the holder counts of all events
+    private static final Object sRecycleLock = new Object();
+    private static final ArrayList<Event> sRecycled = new ArrayList<Event>();
 
     private static String mNoTitleString;
     private static int mNoColorColor;
@@ -144,6 +288,10 @@ public class Event implements Cloneable {
     public Event nextUp;
     public Event nextDown;
 
+    // Number of cached days and lists handed to the UI holding this event,
+    // see acquire() and release().
+    private int mHolders;
+
     @Override
     public final Object clone() throws CloneNotSupportedException {
         super.clone();
@@ -168,6 +316,28 @@ public class Event implements Cloneable {
         return e;
     }
 
+    /**
+     * Returns a hash of the instance and of everything the views draw of
+     * it, the same for two events that {@link #hasSameContent} says are equal.
+     */
+    final long contentHash() {
+        return signatureOf(id, startMillis, endMillis, startDay, endDay, startTime, endTime,
+                color, allDay, selfAttendeeStatus, title, location);
+    }
+
+    /**
+     * Whether the other event is the same instance and is drawn the same way.
+     */
+    final boolean hasSameContent(Event other) {
+        return id == other.id && startMillis == other.startMillis
+                && endMillis == other.endMillis && startDay == other.startDay
+                && endDay == other.endDay && startTime == other.startTime
+                && endTime == other.endTime && color == other.color && allDay == other.allDay
+                && selfAttendeeStatus == other.selfAttendeeStatus
+                && TextUtils.equals(title, other.title)
+                && TextUtils.equals(location, other.location);
+    }
+
     public final void copyTo(Event dest) {
         dest.id = id;
         dest.title = title;
@@ -187,8 +357,21 @@ public class Event implements Cloneable {
         dest.guestsCanModify = guestsCanModify;
     }
 
+    /**
+     * Returns an event with every field reset, reusing a released event if
+     * there is one.
+     */
     public static final Event newInstance() {
-        Event e = new Event();
+        Event e = null;
+        synchronized (sRecycleLock) {
+            int count = sRecycled.size();
+            if (count > 0) {
+                e = sRecycled.remove(count - 1);
+            }
+        }
+        if (e == null) {
+            e = new Event();
+        }
 
         e.id = 0;
         e.title = null;
@@ -204,19 +387,126 @@ public class Event implements Cloneable {
         e.hasAlarm = false;
         e.isRepeating = false;
         e.selfAttendeeStatus = Attendees.ATTENDEE_STATUS_NONE;
+        e.organizer = null;
+        e.guestsCanModify = false;
+        e.mColumn = 0;
+        e.mMaxColumns = 0;
+        e.left = 0;
+        e.right = 0;
+        e.top = 0;
+        e.bottom = 0;
+        e.nextRight = null;
+        e.nextLeft = null;
+        e.nextUp = null;
+        e.nextDown = null;
 
         return e;
     }
 
     /**
-     * Loads <i>days</i> days worth of instances starting at <i>startDay</i>.
+     * Registers one more holder of each of the events: a cached day or a
+     * list handed to the UI. Events are only reused once every holder
+     * released them, and events that were never acquired are left to the
+     * garbage collector.
      */
-    public static void loadEvents(Context context, ArrayList<Event> events, int startDay, int days,
-            int requestId, AtomicInteger sequenceNumber) {
+    static void acquire(List<Event> events) {
+        synchronized (sRecycleLock) {
+            int count = events.size();
+            for (int i = 0; i < count; i++) {
+                events.get(i).mHolders++;
+            }
+        }
+    }
 
-        if (PROFILE) {
-            Debug.startMethodTracing("loadEvents");
+    /**
+     * Unregisters a holder of each of the events acquired before, keeping
+     * the events nobody holds anymore for {@link #newInstance()}. The
+     * released events must not be used by the caller afterwards.
+     */
+    static void release(List<Event> events) {
+        synchronized (sRecycleLock) {
+            int count = events.size();
+            for (int i = 0; i < count; i++) {
+                Event e = events.get(i);
+                if (e.mHolders > 0 && --e.mHolders == 0
+                        && sRecycled.size() < MAX_RECYCLED_EVENTS) {
+                    sRecycled.add(e);
+                }
+            }
         }
+    }
+
+    /**
+     * Chooses whether {@link #loadEvents} issues a single instances query and
+     * splits the allday events out in memory, or one query per kind of event.
+     * The single query is the default as it halves the provider work.
+     */
+    public static void setSinglePassQuery(boolean singlePass) {
+        sSinglePassQuery = singlePass;
+    }
+
+    /**
+     * Returns the instance of the given string shared by loaded events.
+     */
+    static String intern(String s) {
+        return sStringPool.intern(s);
+    }
+
+    /**
+     * Makes loaded events use the given instances for their strings, so that
+     * titles can be matched to these strings by reference.
+     */
+    static void pinStrings(String[] strings) {
+        sStringPool.pin(strings);
+    }
+
+    /**
+     * Adds more events to events, a list in the order {@link #loadEvents}
+     * returns, keeping that order: the events not displayed as allday
+     * sorted by SORT_EVENTS_BY, then the allday events by SORT_ALLDAY_BY.
+     */
+    static void addSorted(ArrayList<Event> events, ArrayList<Event> more) {
+        if (more.isEmpty()) {
+            return;
+        }
+        events.addAll(more);
+        // Both parts are sorted already, which the merge sort takes advantage of
+        Collections.sort(events, LOADED_COMPARATOR);
+    }
+
+    private static boolean isDisplayedAsAllday(Event e) {
+        return e.allDay || e.endMillis - e.startMillis >= DateUtils.DAY_IN_MILLIS;
+    }
+
+    private static String and(String where, String selection) {
+        if (where == null) {
+            return selection;
+        }
+        return "(" + where + ") AND (" + selection + ")";
+    }
+
+    /**
+     * Loads <i>days</i> days worth of instances starting at <i>startDay</i>,
+     * only the ones of the given clerks unless <i>clerks</i> is null.
+     * Stops early, with events incomplete, if cancellationSignal gets
+     * canceled or requestId stops being the value of sequenceNumber.
+     */
+    public static void loadEvents(Context context, ArrayList<Event> events, int startDay, int days,
+            String[] clerks, int requestId, AtomicInteger sequenceNumber,
+            CancellationSignal cancellationSignal) {
+        loadEvents(context, events, startDay, days, clerks, null, requestId, sequenceNumber,
+                cancellationSignal);
+    }
+
+    /**
+     * Same as {@link #loadEvents(Context, ArrayList, int, int, String[], int,
+     * AtomicInteger, CancellationSignal)}, but only loads the instances that
+     * also match selection, an SQL WHERE statement on the instances, unless
+     * it is null.
+     */
+    static void loadEvents(Context context, ArrayList<Event> events, int startDay, int days,
+            String[] clerks, String selection, int requestId, AtomicInteger sequenceNumber,
+            CancellationSignal cancellationSignal) {
 
         Cursor cEvents = null;
         Cursor cAllday = null;
@@ -238,6 +528,31 @@ public class Event implements Cloneable {
             // Respect the preference to show/hide declined events
             boolean hideDeclined = false;
 
+            if (sSinglePassQuery) {
+                String where = selection;
+                if (hideDeclined) {
+                    where = and(where, Instances.SELF_ATTENDEE_STATUS + "!="
+                            + Attendees.ATTENDEE_STATUS_DECLINED);
+                }
+
+                cEvents = instancesQuery(context.getContentResolver(), GRID_PROJECTION, startDay,
+                        endDay, where, null, SORT_EVENTS_BY, clerks, cancellationSignal);
+
+                // Check if we should return early because there are more recent
+                // load requests waiting.
+                if (requestId != sequenceNumber.get()) {
+                    return;
+                }
+
+                // The allday events still have to follow the other events
+                ArrayList<Event> allday = new ArrayList<Event>();
+                buildEventsFromCursor(events, allday, cEvents, context, startDay, endDay,
+                        cancellationSignal);
+                Collections.sort(allday, ALLDAY_COMPARATOR);
+                events.addAll(allday);
+                return;
+            }
+
             String where = EVENTS_WHERE;
             String whereAllday = ALLDAY_WHERE;
             if (hideDeclined) {
@@ -246,11 +561,15 @@ public class Event implements Cloneable {
                 where += hideString;
                 whereAllday += hideString;
             }
+            if (selection != null) {
+                where = and(where, selection);
+                whereAllday = and(whereAllday, selection);
+            }
 
-            cEvents = instancesQuery(context.getContentResolver(), EVENT_PROJECTION, startDay,
-                    endDay, where, null, SORT_EVENTS_BY);
-            cAllday = instancesQuery(context.getContentResolver(), EVENT_PROJECTION, startDay,
-                    endDay, whereAllday, null, SORT_ALLDAY_BY);
+            cEvents = instancesQuery(context.getContentResolver(), GRID_PROJECTION, startDay,
+                    endDay, where, null, SORT_EVENTS_BY, clerks, cancellationSignal);
+            cAllday = instancesQuery(context.getContentResolver(), GRID_PROJECTION, startDay,
+                    endDay, whereAllday, null, SORT_ALLDAY_BY, clerks, cancellationSignal);
 
             // Check if we should return early because there are more recent
             // load requests waiting.
@@ -258,9 +577,12 @@ public class Event implements Cloneable {
                 return;
             }
 
-            buildEventsFromCursor(events, cEvents, context, startDay, endDay);
-            buildEventsFromCursor(events, cAllday, context, startDay, endDay);
+            buildEventsFromCursor(events, cEvents, context, startDay, endDay, cancellationSignal);
+            buildEventsFromCursor(events, cAllday, context, startDay, endDay, cancellationSignal);
 
+        } catch (OperationCanceledException e) {
+            // A more recent request superseded this one while querying
+            events.clear();
         } finally {
             if (cEvents != null) {
                 cEvents.close();
@@ -268,12 +590,270 @@ public class Event implements Cloneable {
             if (cAllday != null) {
                 cAllday.close();
             }
-            if (PROFILE) {
-                Debug.stopMethodTracing();
+        }
+    }
+
+    /**
+     * Loads the timed, single day instances of <i>days</i> days starting at
+     * <i>startDay</i> that overlap the minutes from <i>startMinute</i> to
+     * <i>endMinute</i>. This is the part of a day a view shows first, and a
+     * much smaller query than {@link #loadEvents} on busy days. Allday and
+     * multi-day instances are left out. Stops early under the same conditions
+     * as {@link #loadEvents}.
+     */
+    public static void loadEventsInWindow(Context context, ArrayList<Event> events, int startDay,
+            int days, String[] clerks, int startMinute, int endMinute, int requestId,
+            AtomicInteger sequenceNumber, CancellationSignal cancellationSignal) {
+        Cursor cursor = null;
+
+        events.clear();
+        try {
+            int endDay = startDay + days - 1;
+            String where = EVENTS_WHERE + " AND " + Instances.START_DAY + "=" + Instances.END_DAY
+                    + " AND " + Instances.START_MINUTE + "<? AND " + Instances.END_MINUTE + ">?";
+            String[] whereArgs = {
+                    String.valueOf(endMinute), String.valueOf(startMinute)
+            };
+
+            cursor = instancesQuery(context.getContentResolver(), GRID_PROJECTION, startDay,
+                    endDay, where, whereArgs, SORT_EVENTS_BY, clerks, cancellationSignal);
+
+            // Check if we should return early because there are more recent
+            // load requests waiting.
+            if (requestId != sequenceNumber.get()) {
+                return;
+            }
+
+            buildEventsFromCursor(events, cursor, context, startDay, endDay, cancellationSignal);
+        } catch (OperationCanceledException e) {
+            // A more recent request superseded this one while querying
+            events.clear();
+        } finally {
+            if (cursor != null) {
+                cursor.close();
             }
         }
     }
 
+    /**
+     * Loads <i>days</i> days worth of instances starting at <i>startDay</i>
+     * into a column oriented block, without creating an Event per instance.
+     * The events come in the same order as with {@link #loadEvents}, and the
+     * load stops early under the same conditions.
+     */
+    public static void loadEventBlock(Context context, EventBlock block, int startDay, int days,
+            String[] clerks, int requestId, AtomicInteger sequenceNumber,
+            CancellationSignal cancellationSignal) {
+        Cursor cursor = null;
+
+        block.clear();
+        try {
+            int endDay = startDay + days - 1;
+
+            cursor = instancesQuery(context.getContentResolver(), GRID_PROJECTION, startDay,
+                    endDay, null, null, SORT_EVENTS_BY, clerks, cancellationSignal);
+
+            // Check if we should return early because there are more recent
+            // load requests waiting.
+            if (requestId != sequenceNumber.get()) {
+                return;
+            }
+
+            buildEventBlockFromCursor(block, cursor, context, startDay, endDay,
+                    cancellationSignal);
+        } catch (OperationCanceledException e) {
+            // A more recent request superseded this one while querying
+            block.clear();
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * Fetches the fields of an event that bulk loads leave out.
+     *
+     * @return the details, or null if the event does not exist anymore
+     */
+    public static EventDetails loadEventDetails(Context context, long eventId) {
+        Cursor cursor = null;
+        try {
+            cursor = context.getContentResolver().query(
+                    ContentUris.withAppendedId(Events.CONTENT_URI, eventId),
+                    DETAILS_PROJECTION, null, null, null);
+            if (cursor == null || !cursor.moveToFirst()) {
+                return null;
+            }
+
+            EventDetails details = new EventDetails();
+            details.hasAlarm = cursor.getInt(DETAILS_HAS_ALARM_INDEX) != 0;
+            // Check if this is a repeating event
+            details.isRepeating = !TextUtils.isEmpty(cursor.getString(DETAILS_RRULE_INDEX))
+                    || !TextUtils.isEmpty(cursor.getString(DETAILS_RDATE_INDEX));
+            details.organizer = cursor.getString(DETAILS_ORGANIZER_INDEX);
+            details.guestsCanModify = cursor.getInt(DETAILS_GUESTS_CAN_MODIFY_INDEX) != 0;
+            return details;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * Fills in the days of the occupancy's range that have instances, and
+     * counts the instances per clerk, from a projection of three columns.
+     */
+    public static void loadDayOccupancy(Context context, DayOccupancy occupancy,
+            String[] clerks) {
+        loadDayOccupancy(context, occupancy, clerks, null);
+    }
+
+    /**
+     * Same as {@link #loadDayOccupancy(Context, DayOccupancy, String[])}, but
+     * only counts the instances that also match selection unless it is null.
+     */
+    static void loadDayOccupancy(Context context, DayOccupancy occupancy, String[] clerks,
+            String selection) {
+        int startDay = occupancy.getStartDay();
+        int endDay = startDay + occupancy.getNumDays() - 1;
+
+        Cursor cursor = null;
+        try {
+            cursor = instancesQuery(context.getContentResolver(), OCCUPANCY_PROJECTION,
+                    startDay, endDay, selection, null, null, clerks, null);
+            if (cursor == null) {
+                return;
+            }
+            while (cursor.moveToNext()) {
+                occupancy.addSpan(cursor.getInt(OCCUPANCY_START_DAY_INDEX),
+                        cursor.getInt(OCCUPANCY_END_DAY_INDEX),
+                        cursor.getString(OCCUPANCY_TITLE_INDEX));
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * Computes a signature of the events of <i>days</i> days starting at
+     * <i>startDay</i>, one per day, using a much smaller projection than
+     * {@link #loadEvents}. A day's signature matches the one computed by
+     * {@link #daySignature} from the events {@link #loadEvents} returned for
+     * it, as long as the provider data did not change.
+     */
+    public static long[] loadDaySignatures(Context context, int startDay, int days,
+            String[] clerks) {
+        return loadDaySignatures(context, startDay, days, clerks, null);
+    }
+
+    /**
+     * Same as {@link #loadDaySignatures(Context, int, int, String[])}, but
+     * only signs the instances that also match selection unless it is null.
+     */
+    static long[] loadDaySignatures(Context context, int startDay, int days, String[] clerks,
+            String selection) {
+        long[] signatures = new long[days];
+        int endDay = startDay + days - 1;
+
+        Resources res = context.getResources();
+        mNoTitleString = res.getString(R.string.no_title_label);
+        mNoColorColor = res.getColor(R.color.event_center);
+
+        Cursor cursor = null;
+        try {
+            cursor = instancesQuery(context.getContentResolver(), SIGNATURE_PROJECTION,
+                    startDay, endDay, selection, null, null, clerks, null);
+            if (cursor == null) {
+                return signatures;
+            }
+
+            while (cursor.moveToNext()) {
+                int eStartDay = cursor.getInt(SIGNATURE_START_DAY_INDEX);
+                int eEndDay = cursor.getInt(SIGNATURE_END_DAY_INDEX);
+                if (eStartDay > endDay || eEndDay < startDay) {
+                    continue;
+                }
+
+                CharSequence title = cursor.getString(SIGNATURE_TITLE_INDEX);
+                if (title == null || title.length() == 0) {
+                    title = mNoTitleString;
+                }
+                int color;
+                if (!cursor.isNull(SIGNATURE_COLOR_INDEX)) {
+                    color = CalendarUtils.getDisplayColorFromColor(
+                            cursor.getInt(SIGNATURE_COLOR_INDEX));
+                } else {
+                    color = mNoColorColor;
+                }
+
+                long hash = signatureOf(cursor.getLong(SIGNATURE_EVENT_ID_INDEX),
+                        cursor.getLong(SIGNATURE_BEGIN_INDEX), cursor.getLong(SIGNATURE_END_INDEX),
+                        eStartDay, eEndDay, cursor.getInt(SIGNATURE_START_MINUTE_INDEX),
+                        cursor.getInt(SIGNATURE_END_MINUTE_INDEX), color,
+                        cursor.getInt(SIGNATURE_ALL_DAY_INDEX) != 0,
+                        cursor.getInt(SIGNATURE_SELF_ATTENDEE_STATUS_INDEX),
+                        title, cursor.getString(SIGNATURE_LOCATION_INDEX));
+
+                int first = Math.max(eStartDay, startDay);
+                int last = Math.min(eEndDay, endDay);
+                for (int day = first; day <= last; day++) {
+                    signatures[day - startDay] += hash;
+                }
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return signatures;
+    }
+
+    /**
+     * Computes the signature of a day from the events that intersect it. The
+     * signature does not depend on the order of the events.
+     */
+    public static long daySignature(ArrayList<Event> events) {
+        long signature = 0;
+        int count = events.size();
+        for (int i = 0; i < count; i++) {
+            Event e = events.get(i);
+            signature += signatureOf(e.id, e.startMillis, e.endMillis, e.startDay, e.endDay,
+                    e.startTime, e.endTime, e.color, e.allDay, e.selfAttendeeStatus,
+                    e.title, e.location);
+        }
+        return signature;
+    }
+
+    static long signatureOf(long id, long startMillis, long endMillis, int startDay,
+            int endDay, int startTime, int endTime, int color, boolean allDay,
+            int selfAttendeeStatus, CharSequence title, CharSequence location) {
+        long h = id;
+        h = h * 31 + startMillis;
+        h = h * 31 + endMillis;
+        h = h * 31 + startDay;
+        h = h * 31 + endDay;
+        h = h * 31 + startTime;
+        h = h * 31 + endTime;
+        h = h * 31 + color;
+        h = h * 31 + (allDay ? 1 : 0);
+        h = h * 31 + selfAttendeeStatus;
+        h = h * 31 + (title == null ? 0 : title.toString().hashCode());
+        h = h * 31 + (location == null ? 0 : location.toString().hashCode());
+
+        // Mix the bits so that summing the signatures of several events
+        // does not cancel out small differences.
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
     /**
      * Performs a query to return all visible instances in the given range
      * that match the given selection. This is a blocking function and
@@ -291,10 +871,15 @@ public class Event implements Cloneable {
      * @param selection Filter on the query as an SQL WHERE statement
      * @param selectionArgs Args to replace any '?'s in the selection
      * @param orderBy How to order the rows as an SQL ORDER BY statement
+     * @param clerks Only return the instances titled with one of these
+     *            names, ignoring case, or every instance if null
+     * @param cancellationSignal Aborts the query when canceled, may be null
      * @return A Cursor of instances matching the selection
+     * @throws OperationCanceledException if the query got canceled
      */
     private static final Cursor instancesQuery(ContentResolver cr, String[] projection,
-            int startDay, int endDay, String selection, String[] selectionArgs, String orderBy) {
+            int startDay, int endDay, String selection, String[] selectionArgs, String orderBy,
+            String[] clerks, CancellationSignal cancellationSignal) {
         String WHERE_CALENDARS_SELECTED = Calendars.VISIBLE + "=?";
         String[] WHERE_CALENDARS_ARGS = {"1"};
         String DEFAULT_SORT_ORDER = "begin ASC";
@@ -314,8 +899,32 @@ public class Event implements Cloneable {
                 selectionArgs = WHERE_CALENDARS_ARGS;
             }
         }
-        return cr.query(builder.build(), projection, selection, selectionArgs,
-                orderBy == null ? DEFAULT_SORT_ORDER : orderBy);
+        if (clerks != null) {
+            // Clerks are matched on the title, the way the views match them
+            StringBuilder where = new StringBuilder(selection);
+            where.append(" AND ").append(Instances.TITLE).append(" COLLATE NOCASE IN (");
+            for (int i = 0; i < clerks.length; i++) {
+                where.append(i == 0 ? "?" : ",?");
+            }
+            where.append(')');
+            selection = where.toString();
+
+            int numArgs = selectionArgs.length;
+            selectionArgs = Arrays.copyOf(selectionArgs, numArgs + clerks.length);
+            System.arraycopy(clerks, 0, selectionArgs, numArgs, clerks.length);
+        }
+
+        LoaderMetrics metrics = LoaderMetrics.current();
+        long start = System.nanoTime();
+        Cursor cursor = cr.query(builder.build(), projection, selection, selectionArgs,
+                orderBy == null ? DEFAULT_SORT_ORDER : orderBy, cancellationSignal);
+        if (metrics != null && cursor != null) {
+            // The provider only runs the query once the rows are first asked for
+            int rows = cursor.getCount();
+            metrics.recordSince(LoaderMetrics.HISTOGRAM_QUERY, start);
+            metrics.record(LoaderMetrics.HISTOGRAM_ROWS, rows);
+        }
+        return cursor;
     }
 
     /**
@@ -329,6 +938,22 @@ public class Event implements Cloneable {
      */
     public static void buildEventsFromCursor(
             ArrayList<Event> events, Cursor cEvents, Context context, int startDay, int endDay) {
+        buildEventsFromCursor(events, cEvents, context, startDay, endDay, null);
+    }
+
+    /**
+     * Adds all the events from the cursors to the events list, stopping early
+     * if cancellationSignal gets canceled.
+     *
+     * @param events The list of events
+     * @param cEvents Events to add to the list
+     * @param context
+     * @param startDay
+     * @param endDay
+     * @param cancellationSignal May be null
+     */
+    public static void buildEventsFromCursor(ArrayList<Event> events, Cursor cEvents,
+            Context context, int startDay, int endDay, CancellationSignal cancellationSignal) {
         if (cEvents == null || events == null) {
             Log.e(TAG, "buildEventsFromCursor: null cursor or null events list!");
             return;
@@ -340,34 +965,209 @@ public class Event implements Cloneable {
             return;
         }
 
-        Resources res = context.getResources();
-        mNoTitleString = res.getString(R.string.no_title_label);
-        mNoColorColor = res.getColor(R.color.event_center);
-        // Sort events in two passes so we ensure the allday and standard events
-        // get sorted in the correct order
-        cEvents.moveToPosition(-1);
-        while (cEvents.moveToNext()) {
-            Event e = generateEventFromCursor(cEvents);
-            if (e.startDay > endDay || e.endDay < startDay) {
-                continue;
+        LoaderMetrics metrics = LoaderMetrics.current();
+        long start = System.nanoTime();
+        try {
+            Resources res = context.getResources();
+            mNoTitleString = res.getString(R.string.no_title_label);
+            mNoColorColor = res.getColor(R.color.event_center);
+            // Sort events in two passes so we ensure the allday and standard events
+            // get sorted in the correct order
+            cEvents.moveToPosition(-1);
+            while (cEvents.moveToNext()) {
+                if (isCanceled(cEvents, cancellationSignal)) {
+                    return;
+                }
+                Event e = generateEventFromCursor(cEvents);
+                if (e.startDay > endDay || e.endDay < startDay) {
+                    continue;
+                }
+                events.add(e);
+            }
+        } finally {
+            if (metrics != null) {
+                metrics.recordSince(LoaderMetrics.HISTOGRAM_DECODE, start);
+            }
+        }
+    }
+
+    /**
+     * Adds all the events from a cursor holding both allday and other events
+     * to the given lists, keeping the order of the cursor within each list.
+     *
+     * @param events The list of events not displayed as allday
+     * @param allday The list of events displayed as allday
+     * @param cEvents Events to add to the lists
+     * @param context
+     * @param startDay
+     * @param endDay
+     * @param cancellationSignal Stops the decoding when canceled, may be null
+     */
+    public static void buildEventsFromCursor(ArrayList<Event> events, ArrayList<Event> allday,
+            Cursor cEvents, Context context, int startDay, int endDay,
+            CancellationSignal cancellationSignal) {
+        if (cEvents == null || events == null || allday == null) {
+            Log.e(TAG, "buildEventsFromCursor: null cursor or null events list!");
+            return;
+        }
+
+        int count = cEvents.getCount();
+
+        if (count == 0) {
+            return;
+        }
+
+        LoaderMetrics metrics = LoaderMetrics.current();
+        long start = System.nanoTime();
+        try {
+            Resources res = context.getResources();
+            mNoTitleString = res.getString(R.string.no_title_label);
+            mNoColorColor = res.getColor(R.color.event_center);
+            cEvents.moveToPosition(-1);
+            while (cEvents.moveToNext()) {
+                if (isCanceled(cEvents, cancellationSignal)) {
+                    return;
+                }
+                Event e = generateEventFromCursor(cEvents);
+                if (e.startDay > endDay || e.endDay < startDay) {
+                    continue;
+                }
+                if (cEvents.getInt(PROJECTION_DISPLAY_AS_ALLDAY_INDEX) != 0) {
+                    allday.add(e);
+                } else {
+                    events.add(e);
+                }
+            }
+        } finally {
+            if (metrics != null) {
+                metrics.recordSince(LoaderMetrics.HISTOGRAM_DECODE, start);
+            }
+        }
+    }
+
+    /**
+     * Appends all the events from a cursor holding both allday and other
+     * events to the block, the allday events last.
+     *
+     * @param block The block to append to
+     * @param cEvents Events to add to the block
+     * @param context
+     * @param startDay
+     * @param endDay
+     * @param cancellationSignal Stops the decoding when canceled, may be null
+     */
+    public static void buildEventBlockFromCursor(EventBlock block, Cursor cEvents,
+            Context context, int startDay, int endDay, CancellationSignal cancellationSignal) {
+        if (cEvents == null || block == null) {
+            Log.e(TAG, "buildEventBlockFromCursor: null cursor or null block!");
+            return;
+        }
+
+        if (cEvents.getCount() == 0) {
+            return;
+        }
+
+        LoaderMetrics metrics = LoaderMetrics.current();
+        long start = System.nanoTime();
+        try {
+            Resources res = context.getResources();
+            mNoTitleString = res.getString(R.string.no_title_label);
+            mNoColorColor = res.getColor(R.color.event_center);
+
+            // Take the other events in the first pass and the allday events in
+            // the second one, then fix the order of the allday events.
+            int alldayStart = 0;
+            for (int pass = 0; pass < 2; pass++) {
+                cEvents.moveToPosition(-1);
+                while (cEvents.moveToNext()) {
+                    if (isCanceled(cEvents, cancellationSignal)) {
+                        return;
+                    }
+                    boolean allday = cEvents.getInt(PROJECTION_DISPLAY_AS_ALLDAY_INDEX) != 0;
+                    if (allday != (pass == 1)) {
+                        continue;
+                    }
+                    int eStartDay = cEvents.getInt(PROJECTION_START_DAY_INDEX);
+                    int eEndDay = cEvents.getInt(PROJECTION_END_DAY_INDEX);
+                    if (eStartDay > endDay || eEndDay < startDay) {
+                        continue;
+                    }
+                    appendEventFromCursor(block, cEvents);
+                }
+                if (pass == 0) {
+                    alldayStart = block.size;
+                }
+            }
+            block.sortAllday(alldayStart);
+        } finally {
+            if (metrics != null) {
+                metrics.recordSince(LoaderMetrics.HISTOGRAM_DECODE, start);
             }
-            events.add(e);
         }
     }
 
+    /**
+     * Checks every CANCEL_CHECK_INTERVAL rows whether the signal got canceled.
+     */
+    private static boolean isCanceled(Cursor cursor, CancellationSignal cancellationSignal) {
+        return cancellationSignal != null
+                && cursor.getPosition() % CANCEL_CHECK_INTERVAL == 0
+                && cancellationSignal.isCanceled();
+    }
+
+    /**
+     * Decodes the event the cursor points at into a new slot of the block.
+     */
+    private static void appendEventFromCursor(EventBlock block, Cursor cEvents) {
+        int i = block.append();
+
+        block.ids[i] = cEvents.getLong(PROJECTION_EVENT_ID_INDEX);
+
+        String title = cEvents.getString(PROJECTION_TITLE_INDEX);
+        if (title == null || title.length() == 0) {
+            title = mNoTitleString;
+        }
+        block.titles[i] = sStringPool.intern(title);
+        block.locations[i] = sStringPool.intern(cEvents.getString(PROJECTION_LOCATION_INDEX));
+        // Not part of the grid projection, see loadEventDetails()
+        block.organizers[i] = null;
+
+        if (!cEvents.isNull(PROJECTION_COLOR_INDEX)) {
+            // Read the color from the database
+            block.color[i] = CalendarUtils.getDisplayColorFromColor(
+                    cEvents.getInt(PROJECTION_COLOR_INDEX));
+        } else {
+            block.color[i] = mNoColorColor;
+        }
+
+        block.startMillis[i] = cEvents.getLong(PROJECTION_BEGIN_INDEX);
+        block.startTime[i] = cEvents.getInt(PROJECTION_START_MINUTE_INDEX);
+        block.startDay[i] = cEvents.getInt(PROJECTION_START_DAY_INDEX);
+
+        block.endMillis[i] = cEvents.getLong(PROJECTION_END_INDEX);
+        block.endTime[i] = cEvents.getInt(PROJECTION_END_MINUTE_INDEX);
+        block.endDay[i] = cEvents.getInt(PROJECTION_END_DAY_INDEX);
+
+        int flags = 0;
+        if (cEvents.getInt(PROJECTION_ALL_DAY_INDEX) != 0) {
+            flags |= EventBlock.FLAG_ALL_DAY;
+        }
+        block.flags[i] = flags;
+
+        block.selfAttendeeStatus[i] = cEvents.getInt(PROJECTION_SELF_ATTENDEE_STATUS_INDEX);
+    }
+
     /**
      * @param cEvents Cursor pointing at event
      * @return An event created from the cursor
      */
     private static Event generateEventFromCursor(Cursor cEvents) {
-        Event e = new Event();
+        Event e = newInstance();
 
         e.id = cEvents.getLong(PROJECTION_EVENT_ID_INDEX);
-        e.title = cEvents.getString(PROJECTION_TITLE_INDEX);
-        e.location = cEvents.getString(PROJECTION_LOCATION_INDEX);
+        e.title = sStringPool.intern(cEvents.getString(PROJECTION_TITLE_INDEX));
+        e.location = sStringPool.intern(cEvents.getString(PROJECTION_LOCATION_INDEX));
         e.allDay = cEvents.getInt(PROJECTION_ALL_DAY_INDEX) != 0;
-        e.organizer = cEvents.getString(PROJECTION_ORGANIZER_INDEX);
-        e.guestsCanModify = cEvents.getInt(PROJECTION_GUESTS_CAN_INVITE_OTHERS_INDEX) != 0;
 
         if (e.title == null || e.title.length() == 0) {
             e.title = mNoTitleString;
@@ -391,16 +1191,8 @@ public class Event implements Cloneable {
         e.endTime = cEvents.getInt(PROJECTION_END_MINUTE_INDEX);
         e.endDay = cEvents.getInt(PROJECTION_END_DAY_INDEX);
 
-        e.hasAlarm = cEvents.getInt(PROJECTION_HAS_ALARM_INDEX) != 0;
-
-        // Check if this is a repeating event
-        String rrule = cEvents.getString(PROJECTION_RRULE_INDEX);
-        String rdate = cEvents.getString(PROJECTION_RDATE_INDEX);
-        if (!TextUtils.isEmpty(rrule) || !TextUtils.isEmpty(rdate)) {
-            e.isRepeating = true;
-        } else {
-            e.isRepeating = false;
-        }
+        // hasAlarm, isRepeating, organizer and guestsCanModify are not part
+        // of the grid projection, see loadEventDetails()
 
         e.selfAttendeeStatus = cEvents.getInt(PROJECTION_SELF_ATTENDEE_STATUS_INDEX);
         return e;
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.appointment;
+
+import android.text.format.DateUtils;
+
+import java.util.Arrays;
+
+/**
+ * A compact, column oriented list of events. Instead of one {@link Event}
+ * per instance, every field lives in its own array indexed by the position
+ * of the instance, and the arrays are reused from one load to the next.
+ *
+ * Titles and locations are interned through the pool every load shares,
+ * see {@link Event#intern}, so instances of the same event share their
+ * strings, within a block and across blocks and events.
+ */
+public class EventBlock {
+
+    private static final int DEFAULT_CAPACITY = 64;
+
+    public static final int FLAG_ALL_DAY = 1;
+    public static final int FLAG_HAS_ALARM = 1 << 1;
+    public static final int FLAG_REPEATING = 1 << 2;
+    public static final int FLAG_GUESTS_CAN_MODIFY = 1 << 3;
+
+    public int size;
+
+    public long[] ids;
+    public int[] startDay;       // start Julian day
+    public int[] endDay;         // end Julian day
+    public int[] startTime;      // Start and end time are in minutes since midnight
+    public int[] endTime;
+    public long[] startMillis;   // UTC milliseconds since the epoch
+    public long[] endMillis;     // UTC milliseconds since the epoch
+    public int[] color;
+    public int[] flags;
+    public int[] selfAttendeeStatus;
+    public String[] titles;
+    public String[] locations;
+    public String[] organizers;
+
+    public EventBlock() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public EventBlock(int capacity) {
+        allocate(Math.max(capacity, 1));
+    }
+
+    /**
+     * Empties the block, keeping its arrays for the next load.
+     */
+    public void clear() {
+        // Drop the string references so they can be collected
+        Arrays.fill(titles, 0, size, null);
+        Arrays.fill(locations, 0, size, null);
+        Arrays.fill(organizers, 0, size, null);
+        size = 0;
+    }
+
+    /**
+     * Makes room for one more event and returns its index. The caller is
+     * expected to set every column at that index.
+     */
+    public int append() {
+        if (size == ids.length) {
+            grow();
+        }
+        return size++;
+    }
+
+    public boolean drawAsAllday(int i) {
+        // Use >= so we'll pick up Exchange allday events
+        return (flags[i] & FLAG_ALL_DAY) != 0
+                || endMillis[i] - startMillis[i] >= DateUtils.DAY_IN_MILLIS;
+    }
+
+    /**
+     * Copies the event at the given index into dest, leaving the screen
+     * coordinates of dest alone.
+     */
+    public void copyTo(int i, Event dest) {
+        dest.id = ids[i];
+        dest.title = titles[i];
+        dest.color = color[i];
+        dest.location = locations[i];
+        dest.allDay = (flags[i] & FLAG_ALL_DAY) != 0;
+        dest.startDay = startDay[i];
+        dest.endDay = endDay[i];
+        dest.startTime = startTime[i];
+        dest.endTime = endTime[i];
+        dest.startMillis = startMillis[i];
+        dest.endMillis = endMillis[i];
+        dest.hasAlarm = (flags[i] & FLAG_HAS_ALARM) != 0;
+        dest.isRepeating = (flags[i] & FLAG_REPEATING) != 0;
+        dest.selfAttendeeStatus = selfAttendeeStatus[i];
+        dest.organizer = organizers[i];
+        dest.guestsCanModify = (flags[i] & FLAG_GUESTS_CAN_MODIFY) != 0;
+    }
+
+    /**
+     * Creates a standalone Event from the event at the given index.
+     */
+    public Event toEvent(int i) {
+        Event e = Event.newInstance();
+        copyTo(i, e);
+        return e;
+    }
+
+    /**
+     * Sorts the events from the given index to the end the way allday
+     * events are sorted: by start day, then by later end day, then by title.
+     * Meant for the few allday events at the end of a block.
+     */
+    public void sortAllday(int from) {
+        for (int i = from + 1; i < size; i++) {
+            for (int j = i; j > from && compareAllday(j - 1, j) > 0; j--) {
+                swap(j - 1, j);
+            }
+        }
+    }
+
+    private int compareAllday(int i, int j) {
+        if (startDay[i] != startDay[j]) {
+            return startDay[i] < startDay[j] ? -1 : 1;
+        }
+        if (endDay[i] != endDay[j]) {
+            return endDay[i] > endDay[j] ? -1 : 1;
+        }
+        return titles[i].compareTo(titles[j]);
+    }
+
+    private void swap(int i, int j) {
+        long l = ids[i]; ids[i] = ids[j]; ids[j] = l;
+        l = startMillis[i]; startMillis[i] = startMillis[j]; startMillis[j] = l;
+        l = endMillis[i]; endMillis[i] = endMillis[j]; endMillis[j] = l;
+        int n = startDay[i]; startDay[i] = startDay[j]; startDay[j] = n;
+        n = endDay[i]; endDay[i] = endDay[j]; endDay[j] = n;
+        n = startTime[i]; startTime[i] = startTime[j]; startTime[j] = n;
+        n = endTime[i]; endTime[i] = endTime[j]; endTime[j] = n;
+        n = color[i]; color[i] = color[j]; color[j] = n;
+        n = flags[i]; flags[i] = flags[j]; flags[j] = n;
+        n = selfAttendeeStatus[i]; selfAttendeeStatus[i] = selfAttendeeStatus[j];
+        selfAttendeeStatus[j] = n;
+        String s = titles[i]; titles[i] = titles[j]; titles[j] = s;
+        s = locations[i]; locations[i] = locations[j]; locations[j] = s;
+        s = organizers[i]; organizers[i] = organizers[j]; organizers[j] = s;
+    }
+
+    private void allocate(int capacity) {
+        ids = new long[capacity];
+        startDay = new int[capacity];
+        endDay = new int[capacity];
+        startTime = new int[capacity];
+        endTime = new int[capacity];
+        startMillis = new long[capacity];
+        endMillis = new long[capacity];
+        color = new int[capacity];
+        flags = new int[capacity];
+        selfAttendeeStatus = new int[capacity];
+        titles = new String[capacity];
+        locations = new String[capacity];
+        organizers = new String[capacity];
+    }
+
+    private void grow() {
+        int capacity = ids.length * 2;
+        ids = Arrays.copyOf(ids, capacity);
+        startDay = Arrays.copyOf(startDay, capacity);
+        endDay = Arrays.copyOf(endDay, capacity);
+        startTime = Arrays.copyOf(startTime, capacity);
+        endTime = Arrays.copyOf(endTime, capacity);
+        startMillis = Arrays.copyOf(startMillis, capacity);
+        endMillis = Arrays.copyOf(endMillis, capacity);
+        color = Arrays.copyOf(color, capacity);
+        flags = Arrays.copyOf(flags, capacity);
+        selfAttendeeStatus = Arrays.copyOf(selfAttendeeStatus, capacity);
+        titles = Arrays.copyOf(titles, capacity);
+        locations = Arrays.copyOf(locations, capacity);
+        organizers = Arrays.copyOf(organizers, capacity);
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.appointment;
+
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, least-recently-used cache of loaded events keyed by Julian day.
+ *
+ * Each cached day holds every event that intersects that day, so an event
+ * spanning several days is stored once per day. The lists handed to the cache
+ * are owned by it afterwards and are never modified; callers get copies.
+ * Every cached day holds its events, see Event.acquire(), so that events are
+ * only reused once no cached day and no caller holds them anymore.
+ *
+ * All methods are synchronized since the cache is filled from the loader
+ * thread and read from the UI thread.
+ */
+class EventDayCache {
+
+    // Rough retained size of a decoded Event without its strings, in bytes.
+    private static final int EVENT_SIZE_ESTIMATE = 160;
+    // Rough retained size of an empty cached day, in bytes.
+    private static final int DAY_SIZE_ESTIMATE = 64;
+
+    private static class Entry {
+        final ArrayList<Event> events;
+        final int size;
+        // See Event.daySignature()
+        final long signature;
+
+        Entry(ArrayList<Event> events, int size, long signature) {
+            this.events = events;
+            this.size = size;
+            this.signature = signature;
+        }
+    }
+
+    // Access-ordered so that iteration starts at the least recently used day.
+    private final LinkedHashMap<Integer, Entry> mDays =
+            new LinkedHashMap<Integer, Entry>(16, 0.75f, true);
+
+    private int mMaxBytes;
+    private int mMaxDays;
+    private int mSize;
+
+    /**
+     * @param maxBytes Approximate upper bound of the memory held by cached events
+     * @param maxDays Upper bound of the number of cached days
+     */
+    EventDayCache(int maxBytes, int maxDays) {
+        mMaxBytes = maxBytes;
+        mMaxDays = maxDays;
+    }
+
+    /**
+     * Changes the budget of the cache, evicting days if it shrank.
+     */
+    synchronized void setBudget(int maxBytes, int maxDays) {
+        mMaxBytes = maxBytes;
+        mMaxDays = maxDays;
+        trimToBudget();
+    }
+
+    synchronized boolean contains(int julianDay) {
+        return mDays.containsKey(julianDay);
+    }
+
+    synchronized boolean isEmpty() {
+        return mDays.isEmpty();
+    }
+
+    /**
+     * Returns the cached days in ascending order.
+     */
+    synchronized int[] cachedDays() {
+        int[] days = new int[mDays.size()];
+        int i = 0;
+        for (Integer day : mDays.keySet()) {
+            days[i++] = day;
+        }
+        Arrays.sort(days);
+        return days;
+    }
+
+    /**
+     * Drops the cached days, starting at startDay, whose signature no longer
+     * matches the given one. Days that are not cached are ignored.
+     *
+     * @param signatures Current signatures of the days, see Event.loadDaySignatures()
+     * @return the number of dropped days
+     */
+    synchronized int removeChanged(int startDay, long[] signatures) {
+        int removed = 0;
+        for (int i = 0; i < signatures.length; i++) {
+            int day = startDay + i;
+            Entry entry = mDays.get(day);
+            if (entry != null && entry.signature != signatures[i]) {
+                mDays.remove(day);
+                mSize -= entry.size;
+                Event.release(entry.events);
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    synchronized void clear() {
+        for (Entry entry : mDays.values()) {
+            Event.release(entry.events);
+        }
+        mDays.clear();
+        mSize = 0;
+    }
+
+    synchronized void remove(int julianDay) {
+        Entry entry = mDays.remove(julianDay);
+        if (entry != null) {
+            mSize -= entry.size;
+            Event.release(entry.events);
+        }
+    }
+
+    /**
+     * Copies the events of "numDays" days, starting at startDay, into events.
+     * Events spanning several of the requested days are only copied once.
+     * The caller holds the copied events and has to release them, see
+     * Event.release(), once it is done with them.
+     *
+     * @return false, leaving events empty, unless every requested day is cached
+     */
+    synchronized boolean getRange(int startDay, int numDays, ArrayList<Event> events) {
+        events.clear();
+        int endDay = startDay + numDays - 1;
+        for (int day = startDay; day <= endDay; day++) {
+            if (!mDays.containsKey(day)) {
+                return false;
+            }
+        }
+
+        for (int day = startDay; day <= endDay; day++) {
+            ArrayList<Event> dayEvents = mDays.get(day).events;
+            int count = dayEvents.size();
+            for (int i = 0; i < count; i++) {
+                Event e = dayEvents.get(i);
+                // Only take an event from the first requested day it shows up on
+                if (Math.max(e.startDay, startDay) == day) {
+                    events.add(e);
+                }
+            }
+        }
+        // Acquired before leaving the lock, so that no eviction gets in between
+        Event.acquire(events);
+        return true;
+    }
+
+    /**
+     * Returns the first day in the given range that is not cached, or -1 if
+     * the whole range is cached.
+     */
+    synchronized int firstMissingDay(int startDay, int numDays) {
+        for (int day = startDay; day < startDay + numDays; day++) {
+            if (!mDays.containsKey(day)) {
+                return day;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the last day in the given range that is not cached, or -1 if
+     * the whole range is cached.
+     */
+    synchronized int lastMissingDay(int startDay, int numDays) {
+        for (int day = startDay + numDays - 1; day >= startDay; day--) {
+            if (!mDays.containsKey(day)) {
+                return day;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Splits events loaded for "numDays" days, starting at startDay, into
+     * days and caches each of them, including the days without any event.
+     */
+    synchronized void putRange(int startDay, int numDays, ArrayList<Event> events) {
+        int endDay = startDay + numDays - 1;
+        ArrayList<ArrayList<Event>> days = new ArrayList<ArrayList<Event>>(numDays);
+        for (int i = 0; i < numDays; i++) {
+            days.add(new ArrayList<Event>());
+        }
+
+        int count = events.size();
+        for (int i = 0; i < count; i++) {
+            Event e = events.get(i);
+            int first = Math.max(e.startDay, startDay);
+            int last = Math.min(e.endDay, endDay);
+            for (int day = first; day <= last; day++) {
+                days.get(day - startDay).add(e);
+            }
+        }
+
+        for (int i = 0; i < numDays; i++) {
+            put(startDay + i, days.get(i));
+        }
+    }
+
+    /**
+     * Caches the events of a single day, all of which must intersect it.
+     */
+    synchronized void putDay(int julianDay, ArrayList<Event> events) {
+        put(julianDay, events);
+    }
+
+    /**
+     * Returns the events of up to maxDays of the most recently used days.
+     * The lists are the cached ones and must not be modified. The caller
+     * holds the events and has to release every list once it is done.
+     */
+    synchronized SparseArray<ArrayList<Event>> recentDays(int maxDays) {
+        SparseArray<ArrayList<Event>> days = new SparseArray<ArrayList<Event>>(maxDays);
+        // Iterating does not count as an access, and starts at the least recently used
+        int skip = mDays.size() - maxDays;
+        for (Map.Entry<Integer, Entry> entry : mDays.entrySet()) {
+            if (skip-- <= 0) {
+                days.put(entry.getKey(), entry.getValue().events);
+                Event.acquire(entry.getValue().events);
+            }
+        }
+        return days;
+    }
+
+    private void put(int julianDay, ArrayList<Event> events) {
+        Entry entry = new Entry(events, sizeOf(events), Event.daySignature(events));
+        Event.acquire(events);
+        Entry old = mDays.put(julianDay, entry);
+        if (old != null) {
+            mSize -= old.size;
+            Event.release(old.events);
+        }
+        mSize += entry.size;
+        trimToBudget();
+    }
+
+    private void trimToBudget() {
+        Iterator<Map.Entry<Integer, Entry>> it = mDays.entrySet().iterator();
+        while ((mSize > mMaxBytes || mDays.size() > mMaxDays) && it.hasNext()) {
+            Entry entry = it.next().getValue();
+            mSize -= entry.size;
+            it.remove();
+            Event.release(entry.events);
+        }
+    }
+
+    private static int sizeOf(ArrayList<Event> events) {
+        int size = DAY_SIZE_ESTIMATE;
+        int count = events.size();
+        for (int i = 0; i < count; i++) {
+            Event e = events.get(i);
+            size += EVENT_SIZE_ESTIMATE;
+            // Strings are counted at two bytes per char
+            if (e.title != null) {
+                size += 2 * e.title.length();
+            }
+            if (e.location != null) {
+                size += 2 * e.location.length();
+            }
+            if (e.organizer != null) {
+                size += 2 * e.organizer.length();
+            }
+        }
+        return size;
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.appointment;
+
+/**
+ * The fields of an event that the grid does not draw. They are left out of
+ * the bulk loads and fetched by event id once an event is opened, see
+ * {@link EventLoader#loadEventDetailsInBackground}.
+ */
+public class EventDetails {
+    public boolean hasAlarm;
+    public boolean isRepeating;
+    public String organizer;
+    public boolean guestsCanModify;
+
+    public void set(EventDetails other) {
+        hasAlarm = other.hasAlarm;
+        isRepeating = other.isRepeating;
+        organizer = other.organizer;
+        guestsCanModify = other.guestsCanModify;
+    }
+
+    /**
+     * Copies the details into the matching fields of the event.
+     */
+    public void applyTo(Event e) {
+        e.hasAlarm = hasAlarm;
+        e.isRepeating = isRepeating;
+        e.organizer = organizer;
+        e.guestsCanModify = guestsCanModify;
+    }
+}
@@ -16,215 +16,175 @@
 
 package com.example.appointment;
 
-import android.content.ContentResolver;
 import android.content.Context;
-import android.database.Cursor;
+import android.os.CancellationSignal;
 import android.os.Handler;
-import android.os.Process;
-import android.provider.CalendarContract;
-import android.provider.CalendarContract.EventDays;
-import android.util.Log;
 
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Loads events in the background for one view. Loaders using the calendar
+ * provider share a single {@link EventLoaderService} per process, with its
+ * loader threads and caches, so views showing the same days side by side
+ * load them once. Each loader keeps its own sequence of visible loads.
+ *
+ * Call {@link #release()} once the loader is not used anymore.
+ */
 public class EventLoader {
 
-    private Context mContext;
-    private Handler mHandler = new Handler();
-    private AtomicInteger mSequenceNumber = new AtomicInteger();
-
-    private LinkedBlockingQueue<LoadRequest> mLoaderQueue;
-    private LoaderThread mLoaderThread;
-    private ContentResolver mResolver;
+    private final EventLoaderService mService;
+    // Visible loads of this loader, a new one supersedes the previous ones
+    final AtomicInteger mSequenceNumber = new AtomicInteger();
+    // Aborts the most recent visible day load once a newer one supersedes it.
+    // Only touched on the UI thread.
+    private CancellationSignal mVisibleLoadSignal;
+    private Runnable mEventsChangedCallback;
+    private boolean mResumed;
+    private boolean mReleased;
 
-    private static interface LoadRequest {
-        public void processRequest(EventLoader eventLoader);
-        public void skipRequest(EventLoader eventLoader);
+    public EventLoader(Context context) {
+        mService = EventLoaderService.acquireShared(context);
     }
 
-    private static class ShutdownRequest implements LoadRequest {
-        public void processRequest(EventLoader eventLoader) {
-        }
+    /**
+     * Creates a loader with a service of its own, not shared with the other
+     * loaders of the process.
+     *
+     * @param source Where to load the events from instead of the calendar provider
+     */
+    public EventLoader(Context context, EventSource source) {
+        mService = new EventLoaderService(context, source);
+        mService.acquire();
+    }
 
-        public void skipRequest(EventLoader eventLoader) {
+    /**
+     * Call this from the activity's onResume()
+     */
+    public void startBackgroundThread() {
+        if (!mResumed) {
+            mResumed = true;
+            mService.resume();
         }
     }
 
     /**
-     *
-     * Code for handling requests to get whether days have an event or not
-     * and filling in the eventDays array.
-     *
+     * Call this from the activity's onPause(). The loader threads keep
+     * running for a while, in case a loader resumes soon.
      */
-    private static class LoadEventDaysRequest implements LoadRequest {
-        public int startDay;
-        public int numDays;
-        public boolean[] eventDays;
-        public Runnable uiCallback;
-
-        /**
-         * The projection used by the EventDays query.
-         */
-        private static final String[] PROJECTION = {
-                CalendarContract.EventDays.STARTDAY, CalendarContract.EventDays.ENDDAY
-        };
-
-        public LoadEventDaysRequest(int startDay, int numDays, boolean[] eventDays,
-                final Runnable uiCallback)
-        {
-            this.startDay = startDay;
-            this.numDays = numDays;
-            this.eventDays = eventDays;
-            this.uiCallback = uiCallback;
+    public void stopBackgroundThread() {
+        if (mResumed) {
+            mResumed = false;
+            mService.pause();
         }
+    }
 
-        @Override
-        public void processRequest(EventLoader eventLoader)
-        {
-            final Handler handler = eventLoader.mHandler;
-            ContentResolver cr = eventLoader.mResolver;
-
-            // Clear the event days
-            Arrays.fill(eventDays, false);
-
-            //query which days have events
-            Cursor cursor = EventDays.query(cr, startDay, numDays, PROJECTION);
-            try {
-                int startDayColumnIndex = cursor.getColumnIndexOrThrow(EventDays.STARTDAY);
-                int endDayColumnIndex = cursor.getColumnIndexOrThrow(EventDays.ENDDAY);
-
-                //Set all the days with events to true
-                while (cursor.moveToNext()) {
-                    int firstDay = cursor.getInt(startDayColumnIndex);
-                    int lastDay = cursor.getInt(endDayColumnIndex);
-                    //we want the entire range the event occurs, but only within the month
-                    int firstIndex = Math.max(firstDay - startDay, 0);
-                    int lastIndex = Math.min(lastDay - startDay, 30);
-
-                    for(int i = firstIndex; i <= lastIndex; i++) {
-                        eventDays[i] = true;
-                    }
-                }
-            } finally {
-                if (cursor != null) {
-                    cursor.close();
-                }
-            }
-            handler.post(uiCallback);
+    /**
+     * Lets go of the shared service. Call this from the activity's
+     * onDestroy(), the loader must not be used afterwards.
+     */
+    public void release() {
+        if (mReleased) {
+            return;
         }
-
-        @Override
-        public void skipRequest(EventLoader eventLoader) {
+        mReleased = true;
+        stopBackgroundThread();
+        if (mVisibleLoadSignal != null) {
+            mVisibleLoadSignal.cancel();
         }
+        // Whatever is still being loaded for this loader is stale now
+        mSequenceNumber.incrementAndGet();
+        mService.removeLoader(this, mEventsChangedCallback);
+        mService.release();
     }
 
-    private static class LoadEventsRequest implements LoadRequest {
-
-        public int id;
-        public int startDay;
-        public int numDays;
-        public ArrayList<Event> events;
-        public Runnable successCallback;
-        public Runnable cancelCallback;
-
-        public LoadEventsRequest(int id, int startDay, int numDays, ArrayList<Event> events,
-                final Runnable successCallback, final Runnable cancelCallback) {
-            this.id = id;
-            this.startDay = startDay;
-            this.numDays = numDays;
-            this.events = events;
-            this.successCallback = successCallback;
-            this.cancelCallback = cancelCallback;
-        }
-
-        public void processRequest(EventLoader eventLoader) {
-            Event.loadEvents(eventLoader.mContext, events, startDay,
-                    numDays, id, eventLoader.mSequenceNumber);
+    /**
+     * Only loads the events of the given clerks from now on, matched against
+     * the event titles ignoring case, so that the provider does not return
+     * the events no view shows. Every event is loaded if clerks is null.
+     * Loaders sharing the service load the events of every clerk one of
+     * them shows. Drops the cached days if that changes the clerks, since
+     * they were loaded for the previous clerks.
+     */
+    public void setClerks(String[] clerks) {
+        mService.setClerks(this, clerks);
+    }
 
-            // Check if we are still the most recent request.
-            if (id == eventLoader.mSequenceNumber.get()) {
-                eventLoader.mHandler.post(successCallback);
-            } else {
-                eventLoader.mHandler.post(cancelCallback);
-            }
-        }
+    /**
+     * Chooses whether recurring events are expanded in process rather than by
+     * the calendar provider, which is much faster for long ranges with many
+     * recurring events, see {@link ProviderEventSource#setRecurrenceExpansion}.
+     * Applies to every loader sharing the service, and drops the cached days
+     * when it changes the expansion.
+     *
+     * @return false if the events do not come from the calendar provider
+     */
+    public boolean setRecurrenceExpansion(boolean enabled) {
+        return mService.setRecurrenceExpansion(enabled);
+    }
 
-        public void skipRequest(EventLoader eventLoader) {
-            eventLoader.mHandler.post(cancelCallback);
-        }
+    /**
+     * Sets the number of loader threads processing requests in parallel.
+     * Takes effect the next time the loader threads of the service start.
+     */
+    public void setWorkerCount(int workerCount) {
+        mService.setWorkerCount(workerCount);
     }
 
-    private static class LoaderThread extends Thread {
-        LinkedBlockingQueue<LoadRequest> mQueue;
-        EventLoader mEventLoader;
+    /**
+     * Sets how many of the most recently viewed days are saved when the
+     * loader stops and shown right away the next time the process starts.
+     * Zero disables the snapshot.
+     */
+    public void setSnapshotDays(int snapshotDays) {
+        mService.setSnapshotDays(snapshotDays);
+    }
 
-        public LoaderThread(LinkedBlockingQueue<LoadRequest> queue, EventLoader eventLoader) {
-            mQueue = queue;
-            mEventLoader = eventLoader;
+    /**
+     * Sets the callback to run on the UI thread when cached days were dropped
+     * because their events changed in the provider. The callback is expected
+     * to reload the events it shows.
+     */
+    public void setEventsChangedCallback(Runnable callback) {
+        if (mEventsChangedCallback != null) {
+            mService.removeEventsChangedCallback(mEventsChangedCallback);
         }
-
-        public void shutdown() {
-            try {
-                mQueue.put(new ShutdownRequest());
-            } catch (InterruptedException ex) {
-                // The put() method fails with InterruptedException if the
-                // queue is full. This should never happen because the queue
-                // has no limit.
-                Log.e("Cal", "LoaderThread.shutdown() interrupted!");
-            }
+        mEventsChangedCallback = callback;
+        if (callback != null) {
+            mService.addEventsChangedCallback(callback);
         }
+    }
 
-        @Override
-        public void run() {
-            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
-            while (true) {
-                try {
-                    // Wait for the next request
-                    LoadRequest request = mQueue.take();
-
-                    // If there are a bunch of requests already waiting, then
-                    // skip all but the most recent request.
-                    while (!mQueue.isEmpty()) {
-                        // Let the request know that it was skipped
-                        request.skipRequest(mEventLoader);
-
-                        // Skip to the next request
-                        request = mQueue.take();
-                    }
-
-                    if (request instanceof ShutdownRequest) {
-                        return;
-                    }
-                    request.processRequest(mEventLoader);
-                } catch (InterruptedException ex) {
-                    Log.e("Cal", "background LoaderThread interrupted!");
-                }
-            }
-        }
+    /**
+     * Returns the timings and counts recorded since the service was created
+     * or the metrics were last reset. They cover every loader sharing it.
+     */
+    public LoaderMetrics getMetrics() {
+        return mService.getMetrics();
     }
 
-    public EventLoader(Context context) {
-        mContext = context;
-        mLoaderQueue = new LinkedBlockingQueue<LoadRequest>();
-        mResolver = context.getContentResolver();
+    /**
+     * Returns the number of requests waiting for a loader thread.
+     */
+    public int getQueueDepth() {
+        return mService.getQueueDepth();
     }
 
     /**
-     * Call this from the activity's onResume()
+     * Changes the budget of the day cache.
+     *
+     * @param maxBytes Approximate upper bound of the memory held by cached events
+     * @param maxDays Upper bound of the number of cached days
      */
-    public void startBackgroundThread() {
-        mLoaderThread = new LoaderThread(mLoaderQueue, this);
-        mLoaderThread.start();
+    public void setCacheBudget(int maxBytes, int maxDays) {
+        mService.setCacheBudget(maxBytes, maxDays);
     }
 
     /**
-     * Call this from the activity's onPause()
+     * Drops every cached day. Call this when the events in the provider changed.
      */
-    public void stopBackgroundThread() {
-        mLoaderThread.shutdown();
+    public void invalidateCache() {
+        mService.invalidateCache();
     }
 
     /**
@@ -235,52 +195,100 @@ public class EventLoader {
      * the ones that were passed in on the call that results in the background thread getting
      * created are used, and the most recent call's worth of data is loaded into events and posted
      * via the uiCallback.
+     * If every requested day is already cached, events is filled and successCallback is run
+     * before this method returns. Otherwise only the days missing from the cache are queried.
      */
     public void loadEventsInBackground(final int numDays, final ArrayList<Event> events,
             int startDay, final Runnable successCallback, final Runnable cancelCallback) {
+        loadEventsInBackground(numDays, events, startDay, 0, 0, null, null,
+                successCallback, cancelCallback);
+    }
 
-        // Increment the sequence number for requests.  We don't care if the
-        // sequence numbers wrap around because we test for equality with the
-        // latest one.
-        int id = mSequenceNumber.incrementAndGet();
+    /**
+     * Same as {@link #loadEventsInBackground(int, ArrayList, int, Runnable, Runnable)},
+     * but when the events have to be queried, the timed single day events
+     * overlapping the minutes from firstMinute to lastMinute, typically the
+     * hours on screen, are loaded first into firstBatch and
+     * firstBatchCallback is posted before the complete list is loaded.
+     * The first batch is skipped if every requested day is cached, or if
+     * another loader is loading the same days already and this call shares
+     * the result of that load.
+     */
+    public void loadEventsInBackground(final int numDays, final ArrayList<Event> events,
+            int startDay, int firstMinute, int lastMinute, ArrayList<Event> firstBatch,
+            Runnable firstBatchCallback, final Runnable successCallback,
+            final Runnable cancelCallback) {
+        mService.loadEventsInBackground(this, numDays, events, startDay, firstMinute,
+                lastMinute, firstBatch, firstBatchCallback, successCallback, cancelCallback);
+    }
 
-        // Send the load request to the background thread
-        LoadEventsRequest request = new LoadEventsRequest(id, startDay, numDays,
-                events, successCallback, cancelCallback);
+    /**
+     * Loads "numDays" days worth of events, starting at startDay, into the
+     * cache unless they are cached already. Prefetches only run once no
+     * visible day is waiting to be loaded, and never report back.
+     */
+    public void prefetchEventsInBackground(int startDay, int numDays) {
+        mService.prefetchEventsInBackground(startDay, numDays);
+    }
 
-        try {
-            mLoaderQueue.put(request);
-        } catch (InterruptedException ex) {
-            // The put() method fails with InterruptedException if the
-            // queue is full. This should never happen because the queue
-            // has no limit.
-            Log.e("Cal", "loadEventsInBackground() interrupted!");
+    /**
+     * Loads "numDays" days worth of events, starting at start, into a column
+     * oriented block instead of a list of events. The block is filled on the
+     * loader thread, so it must not be read until successCallback runs.
+     * Blocks are not cached and always come from the provider.
+     */
+    public void loadEventBlockInBackground(final int numDays, final EventBlock block,
+            int startDay, final Runnable successCallback, final Runnable cancelCallback) {
+        mService.loadEventBlockInBackground(this, numDays, block, startDay,
+                successCallback, cancelCallback);
+    }
+
+    /**
+     * Fills details with the fields of an event that the loads above leave
+     * out, then runs uiCallback on the UI thread. Details are cached, so
+     * uiCallback runs before this method returns for recently opened events.
+     * details is left alone if the event does not exist anymore.
+     */
+    public void loadEventDetailsInBackground(long eventId, EventDetails details,
+            Runnable uiCallback) {
+        mService.loadEventDetailsInBackground(eventId, details, uiCallback);
+    }
+
+    /**
+     * Cancels the previous visible day load, which a new one is about to
+     * supersede, so that its provider query stops as soon as possible.
+     */
+    CancellationSignal newVisibleLoadSignal() {
+        if (mVisibleLoadSignal != null) {
+            mVisibleLoadSignal.cancel();
         }
+        mVisibleLoadSignal = new CancellationSignal();
+        return mVisibleLoadSignal;
     }
 
     /**
-     * Sends a request for the days with events to be marked. Loads "numDays"
-     * worth of days, starting at start, and fills in eventDays to express which
-     * days have events.
+     * Sends a request for the days with events to be marked. Fills in which
+     * days of the occupancy's range, which can be of any length, have events,
+     * and counts them per clerk if the occupancy was created with clerks.
      *
-     * @param startDay First day to check for events
-     * @param numDays Days following the start day to check
-     * @param eventDay Whether or not an event exists on that day
+     * @param occupancy The range to check, filled in on the loader thread
      * @param uiCallback What to do when done (log data, redraw screen)
      */
-    void loadEventDaysInBackground(int startDay, int numDays, boolean[] eventDays,
-        final Runnable uiCallback)
+    void loadEventDaysInBackground(DayOccupancy occupancy, final Runnable uiCallback)
     {
-        // Send load request to the background thread
-        LoadEventDaysRequest request = new LoadEventDaysRequest(startDay, numDays,
-                eventDays, uiCallback);
-        try {
-            mLoaderQueue.put(request);
-        } catch (InterruptedException ex) {
-            // The put() method fails with InterruptedException if the
-            // queue is full. This should never happen because the queue
-            // has no limit.
-            Log.e("Cal", "loadEventDaysInBackground() interrupted!");
-        }
+        loadEventDaysInBackground(occupancy, uiCallback, null);
+    }
+
+    /**
+     * Same as {@link #loadEventDaysInBackground(DayOccupancy, Runnable)},
+     * but posts cancelCallback instead of uiCallback if the request gets
+     * superseded before it is done. A request for the same days while
+     * one is pending shares its result rather than superseding it, so
+     * every call gets either uiCallback or cancelCallback.
+     */
+    void loadEventDaysInBackground(DayOccupancy occupancy, final Runnable uiCallback,
+        final Runnable cancelCallback)
+    {
+        mService.loadEventDaysInBackground(occupancy, uiCallback, cancelCallback);
     }
 }
@@ -0,0 +1,1221 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.appointment;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Process;
+import android.provider.CalendarContract;
+import android.util.Log;
+import android.util.LruCache;
+import android.util.SparseArray;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loads events for the {@link EventLoader}s of a process. It owns what can
+ * be shared between the views of a process: the request queue, the loader
+ * threads, the day and details caches and the change observer, so that two
+ * views showing the same days load them once.
+ *
+ * The shared service is reference counted, see {@link #acquireShared}. Its
+ * loader threads are started when the first loader resumes, and stopped
+ * once no loader has been resumed for IDLE_TIMEOUT_MILLIS, so that a
+ * short pause, or a view replacing another one, finds them warm.
+ *
+ * Each loader keeps its own sequence of visible loads, so that the loads
+ * of one view never supersede the loads of another.
+ */
+class EventLoaderService {
+
+    // Default budget of the day cache: roughly a week of busy days.
+    private static final int DEFAULT_CACHE_MAX_BYTES = 1024 * 1024;
+    private static final int DEFAULT_CACHE_MAX_DAYS = 14;
+
+    // How long to wait for a burst of provider changes to settle before
+    // checking which cached days changed.
+    private static final long CHANGE_DEBOUNCE_MILLIS = 500;
+
+    // Loader threads started by default. One can keep loading the visible
+    // days while the other prefetches or checks the cache.
+    private static final int DEFAULT_WORKER_COUNT = 2;
+
+    // Days written to the snapshot when the loader stops, see EventSnapshot
+    private static final int DEFAULT_SNAPSHOT_DAYS = 3;
+    private static final String SNAPSHOT_FILE_NAME = "event_snapshot";
+
+    // Number of events whose details are kept after being opened
+    private static final int DETAILS_CACHE_SIZE = 64;
+
+    // How long the loader threads are kept once no loader is resumed
+    private static final long IDLE_TIMEOUT_MILLIS = 30 * 1000;
+
+    // Request classes, from the most to the least urgent. A request is only
+    // picked once no request of a more urgent class is waiting.
+    private static final int PRIORITY_SHUTDOWN = 0;
+    private static final int PRIORITY_VISIBLE_DAY = 1;
+    private static final int PRIORITY_ADJACENT_PREFETCH = 2;
+    private static final int PRIORITY_OVERVIEW = 3;
+    private static final int PRIORITY_BACKGROUND_WARMUP = 4;
+
+    // Request types, used to build the keys of the requests
+    private static final int TYPE_VISIBLE_EVENTS = 1;
+    private static final int TYPE_PREFETCH_EVENTS = 2;
+    private static final int TYPE_EVENT_DAYS = 3;
+    private static final int TYPE_VALIDATE_CACHE = 4;
+
+    private static final RequestKey VALIDATE_CACHE_KEY =
+            new RequestKey(TYPE_VALIDATE_CACHE, 0, 0, null);
+
+    // The service shared by the loaders using the calendar provider
+    private static EventLoaderService sShared;
+
+    private Context mContext;
+    private final EventSource mSource;
+    private Handler mHandler = new Handler();
+
+    // Loaders holding the service, guarded by the class
+    private int mRefCount;
+    // Loaders between startBackgroundThread() and stopBackgroundThread(),
+    // only touched on the UI thread like the rest of the lifecycle
+    private int mResumedCount;
+
+    private PriorityBlockingQueue<LoadRequest> mLoaderQueue;
+    private final AtomicLong mRequestOrder = new AtomicLong();
+    // Null while the loader threads are stopped
+    private LoaderThread[] mLoaderThreads;
+    private int mWorkerCount = DEFAULT_WORKER_COUNT;
+    // The latest keyed request of each key that is waiting or being
+    // processed, which equal requests join or supersede, see enqueue().
+    // Also guards LoadRequest.followers.
+    private final HashMap<RequestKey, LoadRequest> mPendingRequests =
+            new HashMap<RequestKey, LoadRequest>();
+    private ContentResolver mResolver;
+    private final LoaderMetrics mMetrics = new LoaderMetrics();
+    private final EventDayCache mDayCache =
+            new EventDayCache(DEFAULT_CACHE_MAX_BYTES, DEFAULT_CACHE_MAX_DAYS);
+    // Details by event id, only touched on the UI thread
+    private final LruCache<Long, EventDetails> mDetailsCache =
+            new LruCache<Long, EventDetails>(DETAILS_CACHE_SIZE);
+
+    // Set while the provider may hold changes that are not reflected in the
+    // cache yet. Cached days are not served until they have been validated.
+    private volatile boolean mCacheDirty;
+    // Incremented on every change notification, so that a validation only
+    // clears mCacheDirty if nothing changed while it ran.
+    private final AtomicInteger mChangeGeneration = new AtomicInteger();
+    // Only touched on the UI thread
+    private final ArrayList<Runnable> mEventsChangedCallbacks = new ArrayList<Runnable>();
+    private boolean mObserverRegistered;
+
+    // The clerks each loader shows, null for every clerk. Only touched on
+    // the UI thread.
+    private final LinkedHashMap<EventLoader, String[]> mLoaderClerks =
+            new LinkedHashMap<EventLoader, String[]>();
+    // The clerks the source is restricted to: every clerk a loader shows,
+    // or null for every clerk
+    private String[] mClerks;
+
+    private final File mSnapshotFile;
+    private int mSnapshotDays = DEFAULT_SNAPSHOT_DAYS;
+    // The snapshot is only restored into an empty cache, once per service,
+    // which for the shared service is once per process
+    private boolean mSnapshotRestored;
+
+    private final ContentObserver mObserver = new ContentObserver(mHandler) {
+        @Override
+        public boolean deliverSelfNotifications() {
+            return true;
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            scheduleCacheValidation();
+        }
+    };
+
+    private final Runnable mValidateCache = new Runnable() {
+        @Override
+        public void run() {
+            enqueue(new ValidateCacheRequest(mChangeGeneration.get()));
+        }
+    };
+
+    private final Runnable mNotifyEventsChanged = new Runnable() {
+        @Override
+        public void run() {
+            // A callback may reload, which does not change the list, but be safe
+            for (Runnable callback : new ArrayList<Runnable>(mEventsChangedCallbacks)) {
+                callback.run();
+            }
+        }
+    };
+
+    private final Runnable mIdleStop = new Runnable() {
+        @Override
+        public void run() {
+            stopLoaderThreads();
+        }
+    };
+
+    /**
+     * Identifies what a request loads: its type, its days and the clerks
+     * whose events it loads. Only requests with equal keys coalesce. A
+     * request queued while an equal one is pending either shares its
+     * result or, if it cannot, supersedes it, see enqueue().
+     */
+    private static final class RequestKey {
+        final int type;
+        final int startDay;
+        final int numDays;
+        final String[] clerks;
+
+        RequestKey(int type, int startDay, int numDays, String[] clerks) {
+            this.type = type;
+            this.startDay = startDay;
+            this.numDays = numDays;
+            this.clerks = clerks;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof RequestKey)) {
+                return false;
+            }
+            RequestKey other = (RequestKey) o;
+            return type == other.type && startDay == other.startDay
+                    && numDays == other.numDays && Arrays.equals(clerks, other.clerks);
+        }
+
+        @Override
+        public int hashCode() {
+            return ((type * 31 + startDay) * 31 + numDays) * 31 + Arrays.hashCode(clerks);
+        }
+    }
+
+    private static abstract class LoadRequest implements Comparable<LoadRequest> {
+        final int priority;
+        final RequestKey key;
+        // Keeps requests of the same priority in the order they were queued
+        long order;
+        // When the request was queued, in System.nanoTime()
+        long queuedNanos;
+        // Equal requests queued while this one was pending, which get its
+        // result instead of loading it again. Guarded by mPendingRequests.
+        ArrayList<LoadRequest> followers;
+
+        LoadRequest(int priority, RequestKey key) {
+            this.priority = priority;
+            this.key = key;
+        }
+
+        public abstract void processRequest(EventLoaderService service);
+        public abstract void skipRequest(EventLoaderService service);
+
+        /**
+         * Whether a request with an equal key, queued while this one is
+         * waiting or being processed, can take the result of this one
+         * instead of superseding it.
+         */
+        boolean canShareWith(EventLoaderService service, LoadRequest other) {
+            return false;
+        }
+
+        /**
+         * Whether the loader that queued the request still waits for it.
+         * Such a request is not superseded by an equal one it cannot share
+         * with, and is queued again if the request it shared got canceled.
+         */
+        boolean isStillWanted() {
+            return false;
+        }
+
+        /**
+         * Copies the result of this request into a request that shared it.
+         * Runs on the UI thread once this request succeeded, before the
+         * success callbacks run.
+         */
+        void copyResultTo(LoadRequest follower) {
+        }
+
+        /**
+         * Returns what to run on the UI thread once the request got its
+         * result, or null.
+         */
+        Runnable getSuccessCallback() {
+            return null;
+        }
+
+        @Override
+        public int compareTo(LoadRequest other) {
+            if (priority != other.priority) {
+                return priority < other.priority ? -1 : 1;
+            }
+            return order < other.order ? -1 : (order == other.order ? 0 : 1);
+        }
+    }
+
+    private static class ShutdownRequest extends LoadRequest {
+        public ShutdownRequest() {
+            super(PRIORITY_SHUTDOWN, null);
+        }
+
+        public void processRequest(EventLoaderService service) {
+        }
+
+        public void skipRequest(EventLoaderService service) {
+        }
+    }
+
+    /**
+     * Writes the most recently used cached days to the snapshot file. Runs
+     * ahead of the shutdowns queued with it.
+     */
+    private static class SaveSnapshotRequest extends LoadRequest {
+        public int maxDays;
+
+        public SaveSnapshotRequest(int maxDays) {
+            super(PRIORITY_SHUTDOWN, null);
+            this.maxDays = maxDays;
+        }
+
+        public void processRequest(EventLoaderService service) {
+            SparseArray<ArrayList<Event>> days = service.mDayCache.recentDays(maxDays);
+            if (days.size() > 0) {
+                EventSnapshot.write(service.mSnapshotFile, days);
+            }
+            for (int i = 0; i < days.size(); i++) {
+                Event.release(days.valueAt(i));
+            }
+        }
+
+        public void skipRequest(EventLoaderService service) {
+        }
+    }
+
+    /**
+     * Fetches the details of one event, which the bulk loads leave out.
+     */
+    private static class LoadEventDetailsRequest extends LoadRequest {
+        public long eventId;
+        public EventDetails details;
+        public Runnable uiCallback;
+
+        public LoadEventDetailsRequest(long eventId, EventDetails details,
+                Runnable uiCallback) {
+            // Someone is waiting to see the event
+            super(PRIORITY_VISIBLE_DAY, null);
+            this.eventId = eventId;
+            this.details = details;
+            this.uiCallback = uiCallback;
+        }
+
+        public void processRequest(final EventLoaderService service) {
+            final EventDetails loaded = service.mSource.loadEventDetails(eventId);
+            service.deliver(new Runnable() {
+                @Override
+                public void run() {
+                    if (loaded != null) {
+                        service.mDetailsCache.put(eventId, loaded);
+                        details.set(loaded);
+                    }
+                    uiCallback.run();
+                }
+            });
+        }
+
+        public void skipRequest(EventLoaderService service) {
+        }
+    }
+
+    /**
+     *
+     * Code for handling requests to get whether days have an event or not
+     * and filling in the day occupancy.
+     *
+     */
+    private static class LoadEventDaysRequest extends LoadRequest {
+        public DayOccupancy occupancy;
+        public Runnable uiCallback;
+        public Runnable cancelCallback;
+
+        public LoadEventDaysRequest(DayOccupancy occupancy, String[] clerks,
+                final Runnable uiCallback, final Runnable cancelCallback)
+        {
+            super(PRIORITY_OVERVIEW, new RequestKey(TYPE_EVENT_DAYS, occupancy.getStartDay(),
+                    occupancy.getNumDays(), clerks));
+            this.occupancy = occupancy;
+            this.uiCallback = uiCallback;
+            this.cancelCallback = cancelCallback;
+        }
+
+        @Override
+        public void processRequest(EventLoaderService service)
+        {
+            service.mSource.loadEventDays(occupancy);
+            service.deliverResult(this);
+        }
+
+        @Override
+        boolean canShareWith(EventLoaderService service, LoadRequest other) {
+            // The occupancies must count the same clerks, if any
+            return occupancy.hasSameShape(((LoadEventDaysRequest) other).occupancy);
+        }
+
+        @Override
+        void copyResultTo(LoadRequest follower) {
+            ((LoadEventDaysRequest) follower).occupancy.set(occupancy);
+        }
+
+        @Override
+        boolean isStillWanted() {
+            // Nothing supersedes the occupancy a loader asked for
+            return true;
+        }
+
+        @Override
+        Runnable getSuccessCallback() {
+            return uiCallback;
+        }
+
+        @Override
+        public void skipRequest(EventLoaderService service) {
+            if (cancelCallback != null) {
+                service.mHandler.post(cancelCallback);
+            }
+        }
+    }
+
+    private static class LoadEventsRequest extends LoadRequest {
+
+        // The sequence of the loader that queued the request
+        public AtomicInteger sequenceNumber;
+        public int id;
+        public int startDay;
+        public int numDays;
+        public int loadStartDay;
+        public int loadNumDays;
+        public ArrayList<Event> events;
+        public CancellationSignal cancellationSignal;
+        public Runnable successCallback;
+        public Runnable cancelCallback;
+
+        // Optional, the events overlapping these minutes are loaded into
+        // firstBatch and handed over before the complete list.
+        public ArrayList<Event> firstBatch;
+        public int firstBatchStartMinute;
+        public int firstBatchEndMinute;
+        public Runnable firstBatchCallback;
+
+        /**
+         * Only the days from loadStartDay to loadStartDay + loadNumDays - 1
+         * are queried, the rest of the requested days come from the cache.
+         */
+        public LoadEventsRequest(RequestKey key, AtomicInteger sequenceNumber, int id,
+                int startDay, int numDays, ArrayList<Event> events,
+                final Runnable successCallback, final Runnable cancelCallback) {
+            super(PRIORITY_VISIBLE_DAY, key);
+            this.sequenceNumber = sequenceNumber;
+            this.id = id;
+            this.startDay = startDay;
+            this.numDays = numDays;
+            this.events = events;
+            this.successCallback = successCallback;
+            this.cancelCallback = cancelCallback;
+        }
+
+        public void processRequest(EventLoaderService service) {
+            if (id != sequenceNumber.get()) {
+                // Superseded by a load of other days while waiting
+                service.deliverCanceled(this);
+                return;
+            }
+            if (firstBatchCallback != null) {
+                service.mSource.loadEventsInWindow(firstBatch, startDay, numDays,
+                        firstBatchStartMinute, firstBatchEndMinute,
+                        id, sequenceNumber, cancellationSignal);
+                if (id != sequenceNumber.get()) {
+                    service.deliverCanceled(this);
+                    return;
+                }
+                // Held by the UI until it stops drawing them
+                Event.acquire(firstBatch);
+                service.deliver(firstBatchCallback);
+            }
+
+            int generation = service.mChangeGeneration.get();
+            ArrayList<Event> loaded = new ArrayList<Event>();
+            service.mSource.loadEvents(loaded, loadStartDay, loadNumDays,
+                    id, sequenceNumber, cancellationSignal);
+
+            // Check if we are still the most recent request.
+            if (id != sequenceNumber.get()) {
+                service.deliverCanceled(this);
+                return;
+            }
+
+            // The events handed to the UI are held by it until it stops
+            // drawing them. They are acquired before they are cached, so
+            // that an eviction cannot get them reused in between.
+            EventDayCache cache = service.mDayCache;
+            boolean cacheable = service.isCacheable(generation);
+            boolean wholeRange = loadStartDay == startDay && loadNumDays == numDays;
+            if (wholeRange) {
+                events.addAll(loaded);
+                Event.acquire(events);
+            }
+            if (cacheable) {
+                cache.putRange(loadStartDay, loadNumDays, loaded);
+            }
+            if (!wholeRange && (!cacheable || !cache.getRange(startDay, numDays, events))) {
+                // The cached part of the range got evicted or went stale in the meantime
+                service.mSource.loadEvents(events, startDay, numDays,
+                        id, sequenceNumber, cancellationSignal);
+                if (id != sequenceNumber.get()) {
+                    service.deliverCanceled(this);
+                    return;
+                }
+                Event.acquire(events);
+                if (service.isCacheable(generation)) {
+                    cache.putRange(startDay, numDays, events);
+                }
+            }
+            service.deliverResult(this);
+        }
+
+        public void skipRequest(EventLoaderService service) {
+            service.mHandler.post(cancelCallback);
+        }
+
+        @Override
+        boolean canShareWith(EventLoaderService service, LoadRequest other) {
+            // Unless a load of other days superseded this one meanwhile
+            return isStillWanted();
+        }
+
+        @Override
+        boolean isStillWanted() {
+            return id == sequenceNumber.get();
+        }
+
+        @Override
+        void copyResultTo(LoadRequest follower) {
+            ArrayList<Event> followerEvents = ((LoadEventsRequest) follower).events;
+            followerEvents.addAll(events);
+            // Held by the UI like the events of this request
+            Event.acquire(followerEvents);
+        }
+
+        @Override
+        Runnable getSuccessCallback() {
+            return successCallback;
+        }
+    }
+
+    /**
+     * Loads days into the cache ahead of the user navigating to them.
+     */
+    private static class PrefetchEventsRequest extends LoadRequest {
+        public int startDay;
+        public int numDays;
+
+        public PrefetchEventsRequest(int startDay, int numDays, String[] clerks) {
+            super(PRIORITY_ADJACENT_PREFETCH,
+                    new RequestKey(TYPE_PREFETCH_EVENTS, startDay, numDays, clerks));
+            this.startDay = startDay;
+            this.numDays = numDays;
+        }
+
+        public void processRequest(EventLoaderService service) {
+            EventDayCache cache = service.mDayCache;
+            if (!service.mCacheDirty && cache.firstMissingDay(startDay, numDays) == -1) {
+                return;
+            }
+
+            // Prefetches are not superseded by the visible day loads, so they
+            // run under a sequence of their own that never moves.
+            int generation = service.mChangeGeneration.get();
+            ArrayList<Event> loaded = new ArrayList<Event>();
+            service.mSource.loadEvents(loaded, startDay, numDays, 0, new AtomicInteger(),
+                    null);
+            if (service.isCacheable(generation)) {
+                cache.putRange(startDay, numDays, loaded);
+            }
+        }
+
+        public void skipRequest(EventLoaderService service) {
+        }
+
+        @Override
+        boolean canShareWith(EventLoaderService service, LoadRequest other) {
+            // Prefetches only fill the cache, one does the job of both
+            return true;
+        }
+    }
+
+    private static class LoadEventBlockRequest extends LoadRequest {
+
+        public AtomicInteger sequenceNumber;
+        public int id;
+        public int startDay;
+        public int numDays;
+        public EventBlock block;
+        public CancellationSignal cancellationSignal;
+        public Runnable successCallback;
+        public Runnable cancelCallback;
+
+        public LoadEventBlockRequest(AtomicInteger sequenceNumber, int id, int startDay,
+                int numDays, EventBlock block, CancellationSignal cancellationSignal,
+                final Runnable successCallback, final Runnable cancelCallback) {
+            // Blocks are filled in place and not shared, so they have no key.
+            // Loads of other days supersede this one through the sequence number.
+            super(PRIORITY_VISIBLE_DAY, null);
+            this.sequenceNumber = sequenceNumber;
+            this.id = id;
+            this.startDay = startDay;
+            this.numDays = numDays;
+            this.block = block;
+            this.cancellationSignal = cancellationSignal;
+            this.successCallback = successCallback;
+            this.cancelCallback = cancelCallback;
+        }
+
+        public void processRequest(EventLoaderService service) {
+            if (id != sequenceNumber.get()) {
+                service.deliverCanceled(this);
+                return;
+            }
+            service.mSource.loadEventBlock(block, startDay, numDays,
+                    id, sequenceNumber, cancellationSignal);
+
+            // Check if we are still the most recent request.
+            if (id == sequenceNumber.get()) {
+                service.deliverResult(this);
+            } else {
+                service.deliverCanceled(this);
+            }
+        }
+
+        @Override
+        Runnable getSuccessCallback() {
+            return successCallback;
+        }
+
+        public void skipRequest(EventLoaderService service) {
+            service.mHandler.post(cancelCallback);
+        }
+    }
+
+    /**
+     * Compares the cached days against the provider and drops the ones that
+     * changed, then lets the UI know if any day was dropped.
+     */
+    private static class ValidateCacheRequest extends LoadRequest {
+        public int generation;
+
+        public ValidateCacheRequest(int generation) {
+            super(PRIORITY_BACKGROUND_WARMUP, VALIDATE_CACHE_KEY);
+            this.generation = generation;
+        }
+
+        public void processRequest(EventLoaderService service) {
+            EventDayCache cache = service.mDayCache;
+            int[] days = cache.cachedDays();
+            int removed = 0;
+
+            // Query each run of consecutive cached days separately
+            int runStart = 0;
+            for (int i = 1; i <= days.length; i++) {
+                if (i < days.length && days[i] == days[i - 1] + 1) {
+                    continue;
+                }
+                int startDay = days[runStart];
+                long[] signatures = service.mSource.loadDaySignatures(startDay,
+                        days[i - 1] - startDay + 1);
+                removed += cache.removeChanged(startDay, signatures);
+                runStart = i;
+            }
+
+            if (generation == service.mChangeGeneration.get()) {
+                service.mCacheDirty = false;
+            }
+            if (removed > 0) {
+                service.deliver(service.mNotifyEventsChanged);
+            }
+        }
+
+        public void skipRequest(EventLoaderService service) {
+            // The validation that superseded this one covers its changes
+        }
+    }
+
+    private static class LoaderThread extends Thread {
+        PriorityBlockingQueue<LoadRequest> mQueue;
+        EventLoaderService mService;
+
+        public LoaderThread(PriorityBlockingQueue<LoadRequest> queue, EventLoaderService service) {
+            mQueue = queue;
+            mService = service;
+        }
+
+        public void shutdown() {
+            // Shutdowns are the most urgent requests, anything still waiting
+            // is left for the next loader threads. Every thread of the pool
+            // takes exactly one shutdown request.
+            mService.enqueue(new ShutdownRequest());
+        }
+
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            LoaderMetrics metrics = mService.mMetrics;
+            metrics.attachToCurrentThread();
+            while (true) {
+                try {
+                    // Wait for the most urgent request. Superseded requests
+                    // were already taken out of the queue by enqueue().
+                    LoadRequest request = mQueue.take();
+
+                    if (request instanceof ShutdownRequest) {
+                        return;
+                    }
+                    long start = System.nanoTime();
+                    metrics.record(LoaderMetrics.HISTOGRAM_QUEUE_WAIT,
+                            (start - request.queuedNanos) / 1000);
+                    request.processRequest(mService);
+                    // Requests that report nothing were not closed by a delivery
+                    mService.cancelFollowers(mService.closeRequest(request));
+                    metrics.recordSince(LoaderMetrics.HISTOGRAM_REQUEST, start);
+                    metrics.increment(LoaderMetrics.COUNTER_PROCESSED);
+                } catch (InterruptedException ex) {
+                    Log.e("Cal", "background LoaderThread interrupted!");
+                }
+            }
+        }
+    }
+
+
+    /**
+     * @param source Where to load the events from
+     */
+    EventLoaderService(Context context, EventSource source) {
+        mContext = context;
+        mSource = source;
+        mLoaderQueue = new PriorityBlockingQueue<LoadRequest>();
+        mResolver = context.getContentResolver();
+        mSnapshotFile = new File(context.getFilesDir(), SNAPSHOT_FILE_NAME);
+    }
+
+    /**
+     * Returns the service loading from the calendar provider for the whole
+     * process, creating it if no loader holds it. Every call must be
+     * balanced by a call to {@link #release}.
+     */
+    static synchronized EventLoaderService acquireShared(Context context) {
+        if (sShared == null) {
+            Context appContext = context.getApplicationContext();
+            sShared = new EventLoaderService(appContext, new ProviderEventSource(appContext));
+        }
+        sShared.mRefCount++;
+        return sShared;
+    }
+
+    /**
+     * Holds a service created for a single loader, see {@link #release}.
+     */
+    void acquire() {
+        synchronized (EventLoaderService.class) {
+            mRefCount++;
+        }
+    }
+
+    /**
+     * Lets go of the service. Once no loader holds it anymore, its loader
+     * threads are stopped right away, its source is released and the next
+     * call to {@link #acquireShared} creates a new service.
+     */
+    void release() {
+        synchronized (EventLoaderService.class) {
+            if (--mRefCount > 0) {
+                return;
+            }
+            if (sShared == this) {
+                sShared = null;
+            }
+        }
+        mHandler.removeCallbacks(mIdleStop);
+        if (mLoaderThreads != null) {
+            stopLoaderThreads();
+        }
+        mSource.release();
+    }
+
+    /**
+     * Called when a loader starts loading, see {@link EventLoader#startBackgroundThread}.
+     */
+    void resume() {
+        mResumedCount++;
+        mHandler.removeCallbacks(mIdleStop);
+        if (mLoaderThreads == null) {
+            startLoaderThreads();
+        }
+    }
+
+    /**
+     * Called when a loader stops loading. Once no loader is resumed the
+     * snapshot is saved, and the loader threads are stopped if none resumes
+     * for a while.
+     */
+    void pause() {
+        if (--mResumedCount > 0) {
+            return;
+        }
+        if (mSnapshotDays > 0) {
+            enqueue(new SaveSnapshotRequest(mSnapshotDays));
+        }
+        mHandler.postDelayed(mIdleStop, IDLE_TIMEOUT_MILLIS);
+    }
+
+    private void startLoaderThreads() {
+        mLoaderThreads = new LoaderThread[mWorkerCount];
+        for (int i = 0; i < mLoaderThreads.length; i++) {
+            mLoaderThreads[i] = new LoaderThread(mLoaderQueue, this);
+            mLoaderThreads[i].start();
+        }
+
+        if (!mObserverRegistered) {
+            mResolver.registerContentObserver(CalendarContract.CONTENT_URI, true, mObserver);
+            mObserverRegistered = true;
+        }
+        if (restoreSnapshot()) {
+            // Show the restored days right away and drop the ones that
+            // changed since they were saved once the provider answers.
+            enqueue(new ValidateCacheRequest(mChangeGeneration.get()));
+        } else if (!mDayCache.isEmpty()) {
+            // Changes made while we were not observing have to be caught up on
+            scheduleCacheValidation();
+        }
+    }
+
+    /**
+     * Fills the empty cache with the days of the snapshot saved the last
+     * time the loader stopped, if any.
+     *
+     * @return whether any day was restored
+     */
+    private boolean restoreSnapshot() {
+        if (mSnapshotRestored || mSnapshotDays == 0 || !mDayCache.isEmpty()) {
+            return false;
+        }
+        mSnapshotRestored = true;
+
+        SparseArray<ArrayList<Event>> days = EventSnapshot.read(mSnapshotFile);
+        if (days == null) {
+            return false;
+        }
+        for (int i = 0; i < days.size(); i++) {
+            mDayCache.putDay(days.keyAt(i), days.valueAt(i));
+        }
+        return days.size() > 0;
+    }
+
+    private void stopLoaderThreads() {
+        for (LoaderThread thread : mLoaderThreads) {
+            thread.shutdown();
+        }
+        mLoaderThreads = null;
+
+        if (mObserverRegistered) {
+            mResolver.unregisterContentObserver(mObserver);
+            mObserverRegistered = false;
+        }
+        mHandler.removeCallbacks(mValidateCache);
+    }
+
+    /**
+     * Sets the clerks a loader shows, null for every clerk. The source only
+     * loads the events of the clerks some loader shows, so the cached days
+     * are dropped whenever that set of clerks changes.
+     */
+    void setClerks(EventLoader loader, String[] clerks) {
+        mLoaderClerks.put(loader, clerks == null ? null : clerks.clone());
+        updateClerks();
+    }
+
+    /**
+     * Forgets the clerks and the callback of a loader that is released.
+     */
+    void removeLoader(EventLoader loader, Runnable eventsChangedCallback) {
+        mEventsChangedCallbacks.remove(eventsChangedCallback);
+        if (mLoaderClerks.containsKey(loader)) {
+            mLoaderClerks.remove(loader);
+            updateClerks();
+        }
+    }
+
+    private void updateClerks() {
+        String[] clerks = null;
+        if (!mLoaderClerks.isEmpty() && !mLoaderClerks.containsValue(null)) {
+            LinkedHashSet<String> union = new LinkedHashSet<String>();
+            for (String[] loaderClerks : mLoaderClerks.values()) {
+                union.addAll(Arrays.asList(loaderClerks));
+            }
+            clerks = union.toArray(new String[union.size()]);
+        }
+        if (Arrays.equals(clerks, mClerks)) {
+            return;
+        }
+        mClerks = clerks;
+        mSource.setClerks(mClerks);
+        // Titles of loaded events will be these very strings
+        Event.pinStrings(mClerks);
+        // Loads still running for the previous clerks must not be cached
+        mChangeGeneration.incrementAndGet();
+        mDayCache.clear();
+    }
+
+    /**
+     * Turns the in-process expansion of recurring events on or off, if the
+     * events come from the calendar provider. Returns whether they do.
+     * Switching drops the cached days and the snapshot, since they would
+     * otherwise be validated against the signatures of the other expansion.
+     */
+    boolean setRecurrenceExpansion(boolean enabled) {
+        if (!(mSource instanceof ProviderEventSource)) {
+            return false;
+        }
+        if (((ProviderEventSource) mSource).setRecurrenceExpansion(enabled)) {
+            // Loads still running with the previous expansion must not be cached
+            mChangeGeneration.incrementAndGet();
+            invalidateCache();
+            mSnapshotFile.delete();
+        }
+        return true;
+    }
+
+    void setWorkerCount(int workerCount) {
+        mWorkerCount = Math.max(workerCount, 1);
+    }
+
+    void setSnapshotDays(int snapshotDays) {
+        mSnapshotDays = Math.max(snapshotDays, 0);
+        if (mSnapshotDays == 0) {
+            mSnapshotFile.delete();
+        }
+    }
+
+    void addEventsChangedCallback(Runnable callback) {
+        mEventsChangedCallbacks.add(callback);
+    }
+
+    void removeEventsChangedCallback(Runnable callback) {
+        mEventsChangedCallbacks.remove(callback);
+    }
+
+    /**
+     * Marks the cache as possibly stale and validates it once the change
+     * notifications stop arriving for a while.
+     */
+    private void scheduleCacheValidation() {
+        mDetailsCache.evictAll();
+        mChangeGeneration.incrementAndGet();
+        mCacheDirty = true;
+        mHandler.removeCallbacks(mValidateCache);
+        mHandler.postDelayed(mValidateCache, CHANGE_DEBOUNCE_MILLIS);
+    }
+
+    /**
+     * Whether events loaded since the given change generation may still be
+     * cached. With several loader threads a load can outlive the validation
+     * that followed a change, and must then not put its stale result back.
+     */
+    private boolean isCacheable(int generation) {
+        return generation == mChangeGeneration.get();
+    }
+
+    LoaderMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    int getQueueDepth() {
+        return mLoaderQueue.size();
+    }
+
+    /**
+     * Posts the result of a request to the UI thread, recording how long it
+     * waited there.
+     */
+    private void deliver(final Runnable callback) {
+        final long posted = System.nanoTime();
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mMetrics.recordSince(LoaderMetrics.HISTOGRAM_DELIVERY, posted);
+                callback.run();
+            }
+        });
+    }
+
+    /**
+     * Posts the success of a request, and of the requests that shared its
+     * result, to the UI thread. Requests queued from now on load again.
+     */
+    private void deliverResult(final LoadRequest request) {
+        final ArrayList<LoadRequest> followers = closeRequest(request);
+        deliver(new Runnable() {
+            @Override
+            public void run() {
+                if (followers == null) {
+                    runIfSet(request.getSuccessCallback());
+                    return;
+                }
+                // Copied before any callback gets to touch the result
+                ArrayList<LoadRequest> served = new ArrayList<LoadRequest>(followers.size());
+                for (LoadRequest follower : followers) {
+                    if (follower.isStillWanted() || follower.getSuccessCallback() == null) {
+                        request.copyResultTo(follower);
+                        served.add(follower);
+                    } else {
+                        // Its loader moved on while sharing
+                        follower.skipRequest(EventLoaderService.this);
+                    }
+                }
+                runIfSet(request.getSuccessCallback());
+                for (LoadRequest follower : served) {
+                    runIfSet(follower.getSuccessCallback());
+                }
+            }
+        });
+    }
+
+    private static void runIfSet(Runnable callback) {
+        if (callback != null) {
+            callback.run();
+        }
+    }
+
+    /**
+     * Posts the cancellation of a request that was superseded while being
+     * processed, and lets the requests that shared it know.
+     */
+    private void deliverCanceled(LoadRequest request) {
+        mMetrics.increment(LoaderMetrics.COUNTER_CANCELED);
+        ArrayList<LoadRequest> followers = closeRequest(request);
+        request.skipRequest(this);
+        cancelFollowers(followers);
+    }
+
+    /**
+     * Queues the requests that shared a request which got no result again
+     * if their loaders still wait for them, and skips the others.
+     */
+    private void cancelFollowers(ArrayList<LoadRequest> followers) {
+        if (followers == null) {
+            return;
+        }
+        for (LoadRequest follower : followers) {
+            if (follower.isStillWanted()) {
+                // Only the loader of the shared request moved on
+                enqueue(follower);
+            } else {
+                follower.skipRequest(this);
+            }
+        }
+    }
+
+    /**
+     * Stops equal requests from joining the given one, since its result is
+     * final, and returns the ones that did join it, or null.
+     */
+    private ArrayList<LoadRequest> closeRequest(LoadRequest request) {
+        synchronized (mPendingRequests) {
+            if (request.key != null && mPendingRequests.get(request.key) == request) {
+                mPendingRequests.remove(request.key);
+            }
+            ArrayList<LoadRequest> followers = request.followers;
+            request.followers = null;
+            return followers;
+        }
+    }
+
+    void setCacheBudget(int maxBytes, int maxDays) {
+        mDayCache.setBudget(maxBytes, maxDays);
+    }
+
+    void invalidateCache() {
+        mDayCache.clear();
+        mDetailsCache.evictAll();
+    }
+
+    /**
+     * See {@link EventLoader#loadEventsInBackground}. The load is part of
+     * the sequence of the given loader.
+     */
+    void loadEventsInBackground(EventLoader loader, int numDays, ArrayList<Event> events,
+            int startDay, int firstMinute, int lastMinute, ArrayList<Event> firstBatch,
+            Runnable firstBatchCallback, Runnable successCallback, Runnable cancelCallback) {
+
+        // Increment the sequence number for requests.  We don't care if the
+        // sequence numbers wrap around because we test for equality with the
+        // latest one.
+        LoadEventsRequest request = new LoadEventsRequest(
+                new RequestKey(TYPE_VISIBLE_EVENTS, startDay, numDays, mClerks),
+                loader.mSequenceNumber, loader.mSequenceNumber.incrementAndGet(),
+                startDay, numDays, events, successCallback, cancelCallback);
+        request.cancellationSignal = loader.newVisibleLoadSignal();
+
+        int firstMissingDay;
+        int lastMissingDay;
+        if (mCacheDirty) {
+            // The cached days may be stale, load the whole range
+            firstMissingDay = startDay;
+            lastMissingDay = startDay + numDays - 1;
+        } else {
+            firstMissingDay = mDayCache.firstMissingDay(startDay, numDays);
+            if (firstMissingDay == -1 && mDayCache.getRange(startDay, numDays, events)) {
+                successCallback.run();
+                return;
+            }
+            if (firstMissingDay == -1) {
+                // Evicted between the two calls, load the whole range
+                firstMissingDay = startDay;
+            }
+            lastMissingDay = Math.max(mDayCache.lastMissingDay(startDay, numDays),
+                    firstMissingDay);
+        }
+
+        request.loadStartDay = firstMissingDay;
+        request.loadNumDays = lastMissingDay - firstMissingDay + 1;
+        if (firstBatchCallback != null) {
+            request.firstBatch = firstBatch;
+            request.firstBatchStartMinute = firstMinute;
+            request.firstBatchEndMinute = lastMinute;
+            request.firstBatchCallback = firstBatchCallback;
+        }
+
+        // Send the load request to the background thread, unless another
+        // loader is loading the same days already
+        enqueue(request);
+    }
+
+    void prefetchEventsInBackground(int startDay, int numDays) {
+        if (!mCacheDirty && mDayCache.firstMissingDay(startDay, numDays) == -1) {
+            return;
+        }
+        enqueue(new PrefetchEventsRequest(startDay, numDays, mClerks));
+    }
+
+    /**
+     * See {@link EventLoader#loadEventBlockInBackground}. The load is part
+     * of the sequence of the given loader.
+     */
+    void loadEventBlockInBackground(EventLoader loader, int numDays, EventBlock block,
+            int startDay, Runnable successCallback, Runnable cancelCallback) {
+
+        // Block loads share the sequence with the other event loads, so that a
+        // view switching between the two never receives stale results.
+        int id = loader.mSequenceNumber.incrementAndGet();
+
+        enqueue(new LoadEventBlockRequest(loader.mSequenceNumber, id, startDay, numDays,
+                block, loader.newVisibleLoadSignal(), successCallback, cancelCallback));
+    }
+
+    void loadEventDetailsInBackground(long eventId, EventDetails details,
+            Runnable uiCallback) {
+        EventDetails cached = mDetailsCache.get(eventId);
+        if (cached != null) {
+            details.set(cached);
+            uiCallback.run();
+            return;
+        }
+        enqueue(new LoadEventDetailsRequest(eventId, details, uiCallback));
+    }
+
+    void loadEventDaysInBackground(DayOccupancy occupancy, Runnable uiCallback,
+            Runnable cancelCallback) {
+        // Send load request to the background thread
+        enqueue(new LoadEventDaysRequest(occupancy, mClerks, uiCallback, cancelCallback));
+    }
+
+    /**
+     * Makes the request share the result of a pending request with an equal
+     * key, if that one can share it.
+     *
+     * @return whether the request joined a pending one and must not be queued
+     */
+    private boolean join(LoadRequest request) {
+        if (request.key == null) {
+            return false;
+        }
+        synchronized (mPendingRequests) {
+            LoadRequest pending = mPendingRequests.get(request.key);
+            if (pending == null || !pending.canShareWith(this, request)) {
+                return false;
+            }
+            if (pending.followers == null) {
+                pending.followers = new ArrayList<LoadRequest>();
+            }
+            pending.followers.add(request);
+        }
+        mMetrics.increment(LoaderMetrics.COUNTER_SHARED);
+        return true;
+    }
+
+    /**
+     * Queues a request for the loader threads, unless it can share the
+     * result of an equal request that is waiting or being processed. An
+     * equal request that cannot share is superseded, unless its loader
+     * still waits for it: skipped if it is still waiting, or left to
+     * finish if it is being processed.
+     */
+    private void enqueue(LoadRequest request) {
+        if (join(request)) {
+            return;
+        }
+        request.order = mRequestOrder.incrementAndGet();
+        request.queuedNanos = System.nanoTime();
+        if (request.key != null) {
+            LoadRequest superseded = null;
+            synchronized (mPendingRequests) {
+                LoadRequest pending = mPendingRequests.put(request.key, request);
+                if (pending != null && !pending.isStillWanted()
+                        && mLoaderQueue.remove(pending)) {
+                    superseded = pending;
+                }
+            }
+            if (superseded != null) {
+                // Let the request, and the ones sharing it, know that it was skipped
+                cancelFollowers(closeRequest(superseded));
+                superseded.skipRequest(this);
+                mMetrics.increment(LoaderMetrics.COUNTER_SKIPPED);
+            }
+        }
+        mLoaderQueue.put(request);
+        mMetrics.record(LoaderMetrics.HISTOGRAM_QUEUE_DEPTH, mLoaderQueue.size());
+    }
+}
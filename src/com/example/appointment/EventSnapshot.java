@@ -0,0 +1,290 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.appointment;
+
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Reads and writes the events of a few days to a compact binary file, so
+ * that they can be shown right away on the next start of the process.
+ *
+ * The file holds a header, a table of days, one fixed width record per
+ * event and day, and a table of the strings the records refer to:
+ *
+ * <pre>
+ * header:  magic, version, day count, record count, string count
+ * day:     Julian day, index of its first record, record count
+ * record:  id, startMillis, endMillis (longs), startDay, endDay, startTime,
+ *          endTime, color, selfAttendeeStatus, flags, title, location,
+ *          organizer (ints, strings as indices into the table or -1)
+ * string:  UTF-8 byte count, bytes
+ * </pre>
+ *
+ * The file is read through a memory mapping. Snapshots are only a head
+ * start, so a file that cannot be read is deleted and otherwise ignored.
+ */
+class EventSnapshot {
+    private static final String TAG = "EventSnapshot";
+
+    private static final int MAGIC = 0x41505353; // "APSS"
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 5 * 4;
+    private static final int DAY_SIZE = 3 * 4;
+    private static final int RECORD_SIZE = 3 * 8 + 10 * 4;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private EventSnapshot() {
+    }
+
+    /**
+     * Writes the given days to file, replacing its previous content only
+     * once the new content is complete.
+     */
+    static void write(File file, SparseArray<ArrayList<Event>> days) {
+        ArrayList<String> strings = new ArrayList<String>();
+        HashMap<String, Integer> stringIndices = new HashMap<String, Integer>();
+        int numRecords = 0;
+        for (int i = 0; i < days.size(); i++) {
+            numRecords += days.valueAt(i).size();
+        }
+
+        ByteBuffer records = ByteBuffer.allocate(
+                HEADER_SIZE + days.size() * DAY_SIZE + numRecords * RECORD_SIZE);
+        records.putInt(MAGIC);
+        records.putInt(VERSION);
+        records.putInt(days.size());
+        records.putInt(numRecords);
+        records.putInt(0); // string count, set once known
+
+        int firstRecord = 0;
+        for (int i = 0; i < days.size(); i++) {
+            int count = days.valueAt(i).size();
+            records.putInt(days.keyAt(i));
+            records.putInt(firstRecord);
+            records.putInt(count);
+            firstRecord += count;
+        }
+
+        for (int i = 0; i < days.size(); i++) {
+            ArrayList<Event> events = days.valueAt(i);
+            int count = events.size();
+            for (int n = 0; n < count; n++) {
+                Event e = events.get(n);
+                int flags = 0;
+                if (e.allDay) {
+                    flags |= EventBlock.FLAG_ALL_DAY;
+                }
+                if (e.hasAlarm) {
+                    flags |= EventBlock.FLAG_HAS_ALARM;
+                }
+                if (e.isRepeating) {
+                    flags |= EventBlock.FLAG_REPEATING;
+                }
+                if (e.guestsCanModify) {
+                    flags |= EventBlock.FLAG_GUESTS_CAN_MODIFY;
+                }
+
+                records.putLong(e.id);
+                records.putLong(e.startMillis);
+                records.putLong(e.endMillis);
+                records.putInt(e.startDay);
+                records.putInt(e.endDay);
+                records.putInt(e.startTime);
+                records.putInt(e.endTime);
+                records.putInt(e.color);
+                records.putInt(e.selfAttendeeStatus);
+                records.putInt(flags);
+                records.putInt(indexOf(e.title, strings, stringIndices));
+                records.putInt(indexOf(e.location, strings, stringIndices));
+                records.putInt(indexOf(e.organizer, strings, stringIndices));
+            }
+        }
+        records.putInt(4 * 4, strings.size());
+        records.flip();
+
+        int stringsSize = 0;
+        byte[][] encoded = new byte[strings.size()][];
+        for (int i = 0; i < encoded.length; i++) {
+            encoded[i] = strings.get(i).getBytes(UTF_8);
+            stringsSize += 4 + encoded[i].length;
+        }
+        ByteBuffer table = ByteBuffer.allocate(stringsSize);
+        for (byte[] bytes : encoded) {
+            table.putInt(bytes.length);
+            table.put(bytes);
+        }
+        table.flip();
+
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(tmp);
+            FileChannel channel = out.getChannel();
+            while (records.hasRemaining()) {
+                channel.write(records);
+            }
+            while (table.hasRemaining()) {
+                channel.write(table);
+            }
+            out.getFD().sync();
+            out.close();
+            out = null;
+            if (!tmp.renameTo(file)) {
+                Log.w(TAG, "Could not replace " + file);
+                tmp.delete();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write " + file, e);
+            tmp.delete();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // Already failed
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the days written by {@link #write}, or returns null if there is
+     * no usable snapshot.
+     */
+    static SparseArray<ArrayList<Event>> read(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+
+        RandomAccessFile in = null;
+        try {
+            in = new RandomAccessFile(file, "r");
+            FileChannel channel = in.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                file.delete();
+                return null;
+            }
+            int numDays = buffer.getInt();
+            int numRecords = buffer.getInt();
+            int numStrings = buffer.getInt();
+
+            // The string table follows the fixed width part
+            ByteBuffer table = buffer.duplicate();
+            table.position(HEADER_SIZE + numDays * DAY_SIZE + numRecords * RECORD_SIZE);
+            String[] strings = new String[numStrings];
+            for (int i = 0; i < numStrings; i++) {
+                byte[] bytes = new byte[table.getInt()];
+                table.get(bytes);
+                strings[i] = Event.intern(new String(bytes, UTF_8));
+            }
+
+            SparseArray<ArrayList<Event>> days = new SparseArray<ArrayList<Event>>(numDays);
+            for (int i = 0; i < numDays; i++) {
+                int julianDay = buffer.getInt(HEADER_SIZE + i * DAY_SIZE);
+                int firstRecord = buffer.getInt(HEADER_SIZE + i * DAY_SIZE + 4);
+                int count = buffer.getInt(HEADER_SIZE + i * DAY_SIZE + 8);
+
+                ArrayList<Event> events = new ArrayList<Event>(count);
+                buffer.position(HEADER_SIZE + numDays * DAY_SIZE + firstRecord * RECORD_SIZE);
+                for (int n = 0; n < count; n++) {
+                    events.add(readRecord(buffer, strings));
+                }
+                days.put(julianDay, events);
+            }
+            return days;
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read " + file, e);
+        } catch (BufferUnderflowException e) {
+            Log.w(TAG, "Truncated " + file);
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Corrupt " + file);
+        } catch (IndexOutOfBoundsException e) {
+            Log.w(TAG, "Corrupt " + file);
+        } catch (NegativeArraySizeException e) {
+            Log.w(TAG, "Corrupt " + file);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Nothing left to do with the file
+                }
+            }
+        }
+        file.delete();
+        return null;
+    }
+
+    private static Event readRecord(ByteBuffer buffer, String[] strings) {
+        Event e = Event.newInstance();
+        e.id = buffer.getLong();
+        e.startMillis = buffer.getLong();
+        e.endMillis = buffer.getLong();
+        e.startDay = buffer.getInt();
+        e.endDay = buffer.getInt();
+        e.startTime = buffer.getInt();
+        e.endTime = buffer.getInt();
+        e.color = buffer.getInt();
+        e.selfAttendeeStatus = buffer.getInt();
+        int flags = buffer.getInt();
+        e.allDay = (flags & EventBlock.FLAG_ALL_DAY) != 0;
+        e.hasAlarm = (flags & EventBlock.FLAG_HAS_ALARM) != 0;
+        e.isRepeating = (flags & EventBlock.FLAG_REPEATING) != 0;
+        e.guestsCanModify = (flags & EventBlock.FLAG_GUESTS_CAN_MODIFY) != 0;
+        e.title = stringAt(strings, buffer.getInt());
+        e.location = stringAt(strings, buffer.getInt());
+        e.organizer = stringAt(strings, buffer.getInt());
+        return e;
+    }
+
+    private static String stringAt(String[] strings, int index) {
+        return index < 0 ? null : strings[index];
+    }
+
+    private static int indexOf(CharSequence s, ArrayList<String> strings,
+            HashMap<String, Integer> stringIndices) {
+        if (s == null) {
+            return -1;
+        }
+        String key = s.toString();
+        Integer index = stringIndices.get(key);
+        if (index == null) {
+            index = strings.size();
+            strings.add(key);
+            stringIndices.put(key, index);
+        }
+        return index;
+    }
+}
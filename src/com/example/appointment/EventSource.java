@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.appointment;
+
+import android.os.CancellationSignal;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Where {@link EventLoader} gets its events from. All methods are blocking
+ * and are called on the loader thread.
+ */
+public interface EventSource {
+
+    /**
+     * Restricts the loads started afterwards to the events of the given
+     * clerks, matched against the event titles ignoring case. Every event
+     * is loaded if clerks is null.
+     */
+    public void setClerks(String[] clerks);
+
+    /**
+     * Loads "numDays" days worth of instances starting at startDay into
+     * events, see {@link Event#loadEvents}. Implementations may return early
+     * once requestId is no longer the value of sequenceNumber or once
+     * cancellationSignal, which may be null, is canceled.
+     */
+    public void loadEvents(ArrayList<Event> events, int startDay, int numDays,
+            int requestId, AtomicInteger sequenceNumber, CancellationSignal cancellationSignal);
+
+    /**
+     * Loads the timed, single day instances of "numDays" days starting at
+     * startDay that overlap the minutes from startMinute to endMinute, see
+     * {@link Event#loadEventsInWindow}. Returns early like {@link #loadEvents}.
+     */
+    public void loadEventsInWindow(ArrayList<Event> events, int startDay, int numDays,
+            int startMinute, int endMinute, int requestId, AtomicInteger sequenceNumber,
+            CancellationSignal cancellationSignal);
+
+    /**
+     * Same as {@link #loadEvents} but into a column oriented block, see
+     * {@link Event#loadEventBlock}.
+     */
+    public void loadEventBlock(EventBlock block, int startDay, int numDays,
+            int requestId, AtomicInteger sequenceNumber, CancellationSignal cancellationSignal);
+
+    /**
+     * Fetches the fields of an event that the other loads leave out, see
+     * {@link Event#loadEventDetails}. Returns null if there is no such event.
+     */
+    public EventDetails loadEventDetails(long eventId);
+
+    /**
+     * Returns one signature per day, matching {@link Event#daySignature} of the
+     * events {@link #loadEvents} returns for that day.
+     */
+    public long[] loadDaySignatures(int startDay, int numDays);
+
+    /**
+     * Fills in which days of the occupancy's range have events, and how many
+     * events each clerk has on them if the occupancy counts per clerk.
+     */
+    public void loadEventDays(DayOccupancy occupancy);
+
+    /**
+     * Lets go of whatever the source holds on to, such as observers of the
+     * provider, once the service using it is released. Called on the UI
+     * thread, the source is not used afterwards.
+     */
+    public void release();
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.appointment;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Timings and counts of the work done by an {@link EventLoader}, always
+ * recorded and cheap enough to be, so that a slow day can be told apart as
+ * provider time, decoding time or time spent waiting for the UI thread.
+ *
+ * Values are recorded into histograms with one bucket per power of two,
+ * using atomics only, so recording never blocks a loader thread. Read them
+ * with the getters, or all at once with {@link #dump}.
+ *
+ * The provider query and decode stages are recorded by the loads of
+ * {@link Event}, which pick up the metrics of the loader thread they run on.
+ */
+public class LoaderMetrics {
+
+    /** Time a request waited in the queue, in microseconds. */
+    public static final int HISTOGRAM_QUEUE_WAIT = 0;
+    /** Time until the provider returned the rows of one query, in microseconds. */
+    public static final int HISTOGRAM_QUERY = 1;
+    /** Time to turn the rows of one query into events, in microseconds. */
+    public static final int HISTOGRAM_DECODE = 2;
+    /** Time from posting a result until the UI thread ran it, in microseconds. */
+    public static final int HISTOGRAM_DELIVERY = 3;
+    /** Time a loader thread spent on one request, in microseconds. */
+    public static final int HISTOGRAM_REQUEST = 4;
+    /** Rows returned by one query. */
+    public static final int HISTOGRAM_ROWS = 5;
+    /** Requests waiting in the queue, sampled whenever one is queued. */
+    public static final int HISTOGRAM_QUEUE_DEPTH = 6;
+    private static final int NUM_HISTOGRAMS = 7;
+
+    /** Requests processed by a loader thread. */
+    public static final int COUNTER_PROCESSED = 0;
+    /** Requests skipped because a later request superseded them. */
+    public static final int COUNTER_SKIPPED = 1;
+    /** Requests that were processed but superseded before they were done. */
+    public static final int COUNTER_CANCELED = 2;
+    /** Requests that shared the result of an equal pending request. */
+    public static final int COUNTER_SHARED = 3;
+    private static final int NUM_COUNTERS = 4;
+
+    private static final String[] HISTOGRAM_NAMES = {
+            "queue wait us", "query us", "decode us", "delivery us", "request us", "rows",
+            "queue depth"
+    };
+    private static final String[] COUNTER_NAMES = {
+            "processed", "skipped", "canceled", "shared"
+    };
+
+    // Bucket n holds the values from 2^(n-1) to 2^n - 1, bucket 0 holds 0
+    private static final int NUM_BUCKETS = 32;
+
+    // The metrics of the loader thread a load runs on, see current()
+    private static final ThreadLocal<LoaderMetrics> sCurrent = new ThreadLocal<LoaderMetrics>();
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(NUM_HISTOGRAMS * NUM_BUCKETS);
+    private final AtomicLongArray mCounts = new AtomicLongArray(NUM_HISTOGRAMS);
+    private final AtomicLongArray mSums = new AtomicLongArray(NUM_HISTOGRAMS);
+    private final AtomicLongArray mMaxima = new AtomicLongArray(NUM_HISTOGRAMS);
+    private final AtomicLongArray mCounters = new AtomicLongArray(NUM_COUNTERS);
+    private final AtomicLong mResetNanos = new AtomicLong(System.nanoTime());
+
+    /**
+     * Returns the metrics the calling thread records into, or null if it is
+     * not a loader thread.
+     */
+    static LoaderMetrics current() {
+        return sCurrent.get();
+    }
+
+    /**
+     * Makes these the metrics the loads on the calling thread record into.
+     */
+    void attachToCurrentThread() {
+        sCurrent.set(this);
+    }
+
+    /**
+     * Records the time elapsed since startNanos, a value of System.nanoTime().
+     */
+    void recordSince(int histogram, long startNanos) {
+        record(histogram, (System.nanoTime() - startNanos) / 1000);
+    }
+
+    void record(int histogram, long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        int bucket = Math.min(64 - Long.numberOfLeadingZeros(value), NUM_BUCKETS - 1);
+        mBuckets.incrementAndGet(histogram * NUM_BUCKETS + bucket);
+        mCounts.incrementAndGet(histogram);
+        mSums.addAndGet(histogram, value);
+        long max = mMaxima.get(histogram);
+        while (value > max && !mMaxima.compareAndSet(histogram, max, value)) {
+            max = mMaxima.get(histogram);
+        }
+    }
+
+    void increment(int counter) {
+        mCounters.incrementAndGet(counter);
+    }
+
+    /**
+     * Returns the number of values recorded into a histogram.
+     */
+    public long getCount(int histogram) {
+        return mCounts.get(histogram);
+    }
+
+    /**
+     * Returns the mean of the values recorded into a histogram, or 0 if
+     * there are none.
+     */
+    public long getMean(int histogram) {
+        long count = mCounts.get(histogram);
+        return count == 0 ? 0 : mSums.get(histogram) / count;
+    }
+
+    public long getMax(int histogram) {
+        return mMaxima.get(histogram);
+    }
+
+    /**
+     * Returns an upper bound of the given percentile of the values recorded
+     * into a histogram, within a factor of two, or 0 if there are none.
+     *
+     * @param percentile From 0 to 100
+     */
+    public long getPercentile(int histogram, int percentile) {
+        long count = mCounts.get(histogram);
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max((count * percentile + 99) / 100, 1);
+        long seen = 0;
+        for (int bucket = 0; bucket < NUM_BUCKETS; bucket++) {
+            seen += mBuckets.get(histogram * NUM_BUCKETS + bucket);
+            if (seen >= rank) {
+                return Math.min((1L << bucket) - 1, mMaxima.get(histogram));
+            }
+        }
+        return mMaxima.get(histogram);
+    }
+
+    public long getCounter(int counter) {
+        return mCounters.get(counter);
+    }
+
+    /**
+     * Forgets everything recorded so far.
+     */
+    public void reset() {
+        for (int i = 0; i < mBuckets.length(); i++) {
+            mBuckets.set(i, 0);
+        }
+        for (int i = 0; i < NUM_HISTOGRAMS; i++) {
+            mCounts.set(i, 0);
+            mSums.set(i, 0);
+            mMaxima.set(i, 0);
+        }
+        for (int i = 0; i < NUM_COUNTERS; i++) {
+            mCounters.set(i, 0);
+        }
+        mResetNanos.set(System.nanoTime());
+    }
+
+    /**
+     * Prints every histogram and counter, for instance from the dump() of
+     * the fragment or activity using the loader.
+     */
+    public void dump(String prefix, PrintWriter writer) {
+        writer.print(prefix);
+        writer.print("LoaderMetrics over the last ");
+        writer.print((System.nanoTime() - mResetNanos.get()) / 1000000000L);
+        writer.println("s:");
+        for (int i = 0; i < NUM_HISTOGRAMS; i++) {
+            writer.print(prefix);
+            writer.print("  ");
+            writer.print(HISTOGRAM_NAMES[i]);
+            writer.print(": count=");
+            writer.print(getCount(i));
+            writer.print(" mean=");
+            writer.print(getMean(i));
+            writer.print(" p50=");
+            writer.print(getPercentile(i, 50));
+            writer.print(" p90=");
+            writer.print(getPercentile(i, 90));
+            writer.print(" p99=");
+            writer.print(getPercentile(i, 99));
+            writer.print(" max=");
+            writer.println(getMax(i));
+        }
+        for (int i = 0; i < NUM_COUNTERS; i++) {
+            writer.print(prefix);
+            writer.print("  ");
+            writer.print(COUNTER_NAMES[i]);
+            writer.print(": ");
+            writer.println(getCounter(i));
+        }
+    }
+}
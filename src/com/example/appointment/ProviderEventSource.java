@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.appointment;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.CancellationSignal;
+import android.provider.CalendarContract.EventDays;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The default {@link EventSource}, backed by the calendar provider.
+ */
+public class ProviderEventSource implements EventSource {
+
+    /**
+     * The projection used by the EventDays query.
+     */
+    private static final String[] EVENT_DAYS_PROJECTION = {
+            EventDays.STARTDAY, EventDays.ENDDAY
+    };
+
+    private final Context mContext;
+    private volatile String[] mClerks;
+    // Expands the recurring events in process when not null
+    private volatile RecurrenceExpander mExpander;
+
+    public ProviderEventSource(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Chooses whether recurring events are expanded in process from their
+     * series, read once and kept until the provider changes, rather than by
+     * the provider for every load. This is much faster for long ranges with
+     * many recurring events. Event blocks, the first batches of a load and
+     * the recurrences the expander does not support are still expanded by
+     * the provider.
+     *
+     * @return whether this changed the way recurring events are expanded
+     */
+    public synchronized boolean setRecurrenceExpansion(boolean enabled) {
+        if (enabled == (mExpander != null)) {
+            return false;
+        }
+        if (enabled) {
+            mExpander = new RecurrenceExpander(mContext);
+        } else {
+            mExpander.release();
+            mExpander = null;
+        }
+        return true;
+    }
+
+    @Override
+    public void setClerks(String[] clerks) {
+        mClerks = clerks;
+    }
+
+    @Override
+    public void loadEvents(ArrayList<Event> events, int startDay, int numDays,
+            int requestId, AtomicInteger sequenceNumber, CancellationSignal cancellationSignal) {
+        RecurrenceExpander expander = mExpander;
+        if (expander != null) {
+            expander.loadEvents(events, startDay, numDays, mClerks, requestId, sequenceNumber,
+                    cancellationSignal);
+            return;
+        }
+        Event.loadEvents(mContext, events, startDay, numDays, mClerks, requestId, sequenceNumber,
+                cancellationSignal);
+    }
+
+    @Override
+    public void loadEventsInWindow(ArrayList<Event> events, int startDay, int numDays,
+            int startMinute, int endMinute, int requestId, AtomicInteger sequenceNumber,
+            CancellationSignal cancellationSignal) {
+        Event.loadEventsInWindow(mContext, events, startDay, numDays, mClerks, startMinute,
+                endMinute, requestId, sequenceNumber, cancellationSignal);
+    }
+
+    @Override
+    public void loadEventBlock(EventBlock block, int startDay, int numDays,
+            int requestId, AtomicInteger sequenceNumber, CancellationSignal cancellationSignal) {
+        Event.loadEventBlock(mContext, block, startDay, numDays, mClerks, requestId, sequenceNumber,
+                cancellationSignal);
+    }
+
+    @Override
+    public EventDetails loadEventDetails(long eventId) {
+        return Event.loadEventDetails(mContext, eventId);
+    }
+
+    @Override
+    public long[] loadDaySignatures(int startDay, int numDays) {
+        RecurrenceExpander expander = mExpander;
+        if (expander != null) {
+            return expander.loadDaySignatures(startDay, numDays, mClerks);
+        }
+        return Event.loadDaySignatures(mContext, startDay, numDays, mClerks);
+    }
+
+    @Override
+    public void loadEventDays(DayOccupancy occupancy) {
+        // Clear the event days
+        occupancy.clear();
+
+        String[] clerks = mClerks;
+        RecurrenceExpander expander = mExpander;
+        if (expander != null) {
+            expander.loadDayOccupancy(occupancy, clerks);
+            return;
+        }
+        if (occupancy.hasClerkCounts() || clerks != null) {
+            // EventDays does not tell whose events they are
+            Event.loadDayOccupancy(mContext, occupancy, clerks);
+            return;
+        }
+
+        //query which days have events
+        Cursor cursor = EventDays.query(mContext.getContentResolver(), occupancy.getStartDay(),
+                occupancy.getNumDays(), EVENT_DAYS_PROJECTION);
+        try {
+            int startDayColumnIndex = cursor.getColumnIndexOrThrow(EventDays.STARTDAY);
+            int endDayColumnIndex = cursor.getColumnIndexOrThrow(EventDays.ENDDAY);
+
+            //Mark the entire range the event occurs, the occupancy clips it
+            while (cursor.moveToNext()) {
+                occupancy.addSpan(cursor.getInt(startDayColumnIndex),
+                        cursor.getInt(endDayColumnIndex));
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void release() {
+        if (mExpander != null) {
+            mExpander.release();
+            mExpander = null;
+        }
+    }
+}
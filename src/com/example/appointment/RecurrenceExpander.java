@@ -0,0 +1,573 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.appointment;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.os.CancellationSignal;
+import android.provider.CalendarContract;
+import android.provider.CalendarContract.Calendars;
+import android.provider.CalendarContract.Events;
+import android.text.TextUtils;
+import android.text.format.Time;
+import android.util.Log;
+import android.util.LongSparseArray;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Expands recurring events in process instead of having the provider do it.
+ *
+ * The provider expands recurring events into its instances table for the
+ * range being queried, which gets slow for long ranges with many recurring
+ * events, such as the shift patterns of a month or quarter view. Instead,
+ * the recurring series are read once from the events table and kept until
+ * the provider reports a change, and their occurrences are computed for
+ * each load. Only the other instances are queried from the provider.
+ *
+ * Series using a rule {@link RecurrenceRule} does not support, or an
+ * EXRULE, are still expanded by the provider.
+ */
+class RecurrenceExpander {
+    private static final String TAG = "RecurrenceExpander";
+
+    private static final boolean DEBUG = false;
+
+    private static final long MILLIS_PER_MINUTE = 60 * 1000;
+    private static final long MILLIS_PER_DAY = 24 * 60 * MILLIS_PER_MINUTE;
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    private static final String[] SERIES_PROJECTION = new String[] {
+            Events._ID,                  // 0
+            Events.TITLE,                // 1
+            Events.EVENT_LOCATION,       // 2
+            Events.ALL_DAY,              // 3
+            Events.DISPLAY_COLOR,        // 4
+            Events.DTSTART,              // 5
+            Events.DTEND,                // 6
+            Events.DURATION,             // 7
+            Events.EVENT_TIMEZONE,       // 8
+            Events.RRULE,                // 9
+            Events.RDATE,                // 10
+            Events.EXRULE,               // 11
+            Events.EXDATE,               // 12
+            Events.SELF_ATTENDEE_STATUS, // 13
+            Events.LAST_DATE,            // 14
+    };
+    private static final int SERIES_ID_INDEX = 0;
+    private static final int SERIES_TITLE_INDEX = 1;
+    private static final int SERIES_LOCATION_INDEX = 2;
+    private static final int SERIES_ALL_DAY_INDEX = 3;
+    private static final int SERIES_COLOR_INDEX = 4;
+    private static final int SERIES_DTSTART_INDEX = 5;
+    private static final int SERIES_DTEND_INDEX = 6;
+    private static final int SERIES_DURATION_INDEX = 7;
+    private static final int SERIES_TIMEZONE_INDEX = 8;
+    private static final int SERIES_RRULE_INDEX = 9;
+    private static final int SERIES_RDATE_INDEX = 10;
+    private static final int SERIES_EXRULE_INDEX = 11;
+    private static final int SERIES_EXDATE_INDEX = 12;
+    private static final int SERIES_SELF_ATTENDEE_STATUS_INDEX = 13;
+    private static final int SERIES_LAST_DATE_INDEX = 14;
+
+    private static final String SERIES_WHERE = "(" + Events.RRULE + " IS NOT NULL OR "
+            + Events.RDATE + " IS NOT NULL) AND " + Events.DELETED + "=0 AND "
+            + Calendars.VISIBLE + "=1";
+
+    // The instances replacing an occurrence of a series, whose occurrence
+    // must not be expanded
+    private static final String[] EXCEPTION_PROJECTION = new String[] {
+            Events.ORIGINAL_ID,             // 0
+            Events.ORIGINAL_INSTANCE_TIME,  // 1
+    };
+    private static final int EXCEPTION_ORIGINAL_ID_INDEX = 0;
+    private static final int EXCEPTION_ORIGINAL_INSTANCE_TIME_INDEX = 1;
+    private static final String EXCEPTION_WHERE = Events.ORIGINAL_ID + " IS NOT NULL AND "
+            + Events.ORIGINAL_INSTANCE_TIME + " IS NOT NULL AND " + Events.DELETED + "=0";
+
+    /**
+     * A recurring event as read from the events table.
+     */
+    private static class Series {
+        long id;
+        // As stored, null if the event has no title
+        String title;
+        String location;
+        boolean allDay;
+        boolean hasColor;
+        int color;
+        int selfAttendeeStatus;
+        long dtstart;
+        long duration;
+        long lastDate = Long.MAX_VALUE;
+        TimeZone timeZone;
+        RecurrenceRule[] rules;
+        // Sorted
+        long[] rdates;
+        // Sorted, including the occurrences replaced by exceptions
+        long[] exdates;
+    }
+
+    /**
+     * The series loaded for one change generation of the provider.
+     */
+    private static class SeriesSet {
+        final Series[] series;
+        // Matches the instances the provider still has to return
+        final String instancesSelection;
+
+        SeriesSet(Series[] series, String instancesSelection) {
+            this.series = series;
+            this.instancesSelection = instancesSelection;
+        }
+    }
+
+    /**
+     * Receives the occurrences of {@link #expand}.
+     */
+    private interface OccurrenceVisitor {
+        void visit(Series series, long begin, long end, int startDay, int endDay,
+                int startMinute, int endMinute);
+    }
+
+    private final Context mContext;
+    // Bumped whenever the provider reports a change
+    private final AtomicInteger mGeneration = new AtomicInteger();
+    // Guarded by this
+    private SeriesSet mSeriesSet;
+    private int mLoadedGeneration = -1;
+    private boolean mObserverRegistered;
+    private boolean mReleased;
+
+    // Called on a binder thread, since it has no handler
+    private final ContentObserver mObserver = new ContentObserver(null) {
+        @Override
+        public boolean deliverSelfNotifications() {
+            return true;
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            mGeneration.incrementAndGet();
+        }
+    };
+
+    RecurrenceExpander(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Stops watching the provider for changes. The expander must not be used
+     * afterwards.
+     */
+    synchronized void release() {
+        mReleased = true;
+        if (mObserverRegistered) {
+            mContext.getContentResolver().unregisterContentObserver(mObserver);
+            mObserverRegistered = false;
+        }
+        mSeriesSet = null;
+    }
+
+    /**
+     * Same as {@link Event#loadEvents}, with the recurring events expanded
+     * in process.
+     */
+    void loadEvents(ArrayList<Event> events, int startDay, int numDays, String[] clerks,
+            int requestId, AtomicInteger sequenceNumber, CancellationSignal cancellationSignal) {
+        SeriesSet set = getSeriesSet();
+        Event.loadEvents(mContext, events, startDay, numDays, clerks, set.instancesSelection,
+                requestId, sequenceNumber, cancellationSignal);
+        if (requestId != sequenceNumber.get()
+                || (cancellationSignal != null && cancellationSignal.isCanceled())) {
+            return;
+        }
+
+        Resources res = mContext.getResources();
+        final String noTitle = res.getString(R.string.no_title_label);
+        final int noColor = res.getColor(R.color.event_center);
+        final ArrayList<Event> occurrences = new ArrayList<Event>();
+        expand(set, startDay, startDay + numDays - 1, clerks, new OccurrenceVisitor() {
+            @Override
+            public void visit(Series series, long begin, long end, int startDay, int endDay,
+                    int startMinute, int endMinute) {
+                Event e = Event.newInstance();
+                e.id = series.id;
+                e.title = TextUtils.isEmpty(series.title) ? noTitle : Event.intern(series.title);
+                e.location = Event.intern(series.location);
+                e.allDay = series.allDay;
+                e.color = series.hasColor ? series.color : noColor;
+                e.startMillis = begin;
+                e.startTime = startMinute;
+                e.startDay = startDay;
+                e.endMillis = end;
+                e.endTime = endMinute;
+                e.endDay = endDay;
+                e.selfAttendeeStatus = series.selfAttendeeStatus;
+                occurrences.add(e);
+            }
+        });
+        Event.addSorted(events, occurrences);
+    }
+
+    /**
+     * Same as {@link Event#loadDaySignatures}, with the recurring events
+     * expanded in process.
+     */
+    long[] loadDaySignatures(int startDay, int numDays, String[] clerks) {
+        SeriesSet set = getSeriesSet();
+        final long[] signatures = Event.loadDaySignatures(mContext, startDay, numDays, clerks,
+                set.instancesSelection);
+
+        Resources res = mContext.getResources();
+        final String noTitle = res.getString(R.string.no_title_label);
+        final int noColor = res.getColor(R.color.event_center);
+        final int firstDay = startDay;
+        final int lastDay = startDay + numDays - 1;
+        expand(set, firstDay, lastDay, clerks, new OccurrenceVisitor() {
+            @Override
+            public void visit(Series series, long begin, long end, int startDay, int endDay,
+                    int startMinute, int endMinute) {
+                long hash = Event.signatureOf(series.id, begin, end, startDay, endDay,
+                        startMinute, endMinute, series.hasColor ? series.color : noColor,
+                        series.allDay, series.selfAttendeeStatus,
+                        TextUtils.isEmpty(series.title) ? noTitle : series.title,
+                        series.location);
+                int first = Math.max(startDay, firstDay);
+                int last = Math.min(endDay, lastDay);
+                for (int day = first; day <= last; day++) {
+                    signatures[day - firstDay] += hash;
+                }
+            }
+        });
+        return signatures;
+    }
+
+    /**
+     * Same as {@link Event#loadDayOccupancy}, with the recurring events
+     * expanded in process.
+     */
+    void loadDayOccupancy(final DayOccupancy occupancy, String[] clerks) {
+        SeriesSet set = getSeriesSet();
+        Event.loadDayOccupancy(mContext, occupancy, clerks, set.instancesSelection);
+
+        final boolean countClerks = occupancy.hasClerkCounts();
+        int startDay = occupancy.getStartDay();
+        expand(set, startDay, startDay + occupancy.getNumDays() - 1, clerks,
+                new OccurrenceVisitor() {
+            @Override
+            public void visit(Series series, long begin, long end, int startDay, int endDay,
+                    int startMinute, int endMinute) {
+                if (countClerks) {
+                    occupancy.addSpan(startDay, endDay, series.title);
+                } else {
+                    occupancy.addSpan(startDay, endDay);
+                }
+            }
+        });
+    }
+
+    /**
+     * Visits the occurrences of the series that intersect the days from
+     * startDay to endDay, computing their days and minutes in the time zone
+     * of the instances, or in UTC for allday events, like the provider does.
+     */
+    private void expand(SeriesSet set, int startDay, int endDay, String[] clerks,
+            OccurrenceVisitor visitor) {
+        LoaderMetrics metrics = LoaderMetrics.current();
+        long start = System.nanoTime();
+
+        TimeZone localTimeZone = TimeZone.getTimeZone(
+                CalendarUtils.getTimeZone(mContext, null));
+        // A day of margin on each side covers every time zone offset
+        long rangeStart = (startDay - Time.EPOCH_JULIAN_DAY - 1) * MILLIS_PER_DAY;
+        long rangeEnd = (endDay - Time.EPOCH_JULIAN_DAY + 2) * MILLIS_PER_DAY;
+
+        Calendar calendar = new GregorianCalendar(UTC);
+        RecurrenceRule.Occurrences occurrences = new RecurrenceRule.Occurrences();
+        for (Series series : set.series) {
+            if (series.dtstart >= rangeEnd || series.lastDate < rangeStart
+                    || !isClerk(series.title, clerks)) {
+                continue;
+            }
+
+            calendar.setTimeZone(series.timeZone);
+            occurrences.clear();
+            expandSeries(series, calendar, rangeStart - Math.max(series.duration, 0), rangeEnd,
+                    occurrences);
+
+            TimeZone timeZone = series.allDay ? UTC : localTimeZone;
+            long previous = Long.MIN_VALUE;
+            for (int i = 0; i < occurrences.size; i++) {
+                long begin = occurrences.times[i];
+                if (begin == previous || Arrays.binarySearch(series.exdates, begin) >= 0) {
+                    continue;
+                }
+                previous = begin;
+
+                long end = begin + series.duration;
+                int beginOffset = timeZone.getOffset(begin);
+                int endOffset = timeZone.getOffset(end);
+                int eStartDay = Time.getJulianDay(begin, beginOffset / 1000);
+                int eEndDay = Time.getJulianDay(end, endOffset / 1000);
+                int startMinute = minuteOfDay(begin + beginOffset);
+                int endMinute = minuteOfDay(end + endOffset);
+                // An instance ending at midnight ends on the previous day
+                if (endMinute == 0 && eEndDay > eStartDay) {
+                    endMinute = 24 * 60;
+                    eEndDay--;
+                }
+                if (eStartDay > endDay || eEndDay < startDay) {
+                    continue;
+                }
+                visitor.visit(series, begin, end, eStartDay, eEndDay, startMinute, endMinute);
+            }
+        }
+
+        if (metrics != null) {
+            metrics.recordSince(LoaderMetrics.HISTOGRAM_DECODE, start);
+        }
+    }
+
+    /**
+     * Adds the start times of the occurrences of a series from rangeStart to
+     * rangeEnd to out, sorted, possibly with duplicates.
+     */
+    private static void expandSeries(Series series, Calendar calendar, long rangeStart,
+            long rangeEnd, RecurrenceRule.Occurrences out) {
+        if (series.rules.length == 0) {
+            // Only RDATEs, the event itself is the first occurrence
+            if (series.dtstart >= rangeStart && series.dtstart < rangeEnd) {
+                out.add(series.dtstart);
+            }
+        }
+        for (RecurrenceRule rule : series.rules) {
+            rule.expand(calendar, series.dtstart, rangeStart, rangeEnd, out);
+        }
+        for (long rdate : series.rdates) {
+            if (rdate >= rangeStart && rdate < rangeEnd) {
+                out.add(rdate);
+            }
+        }
+        out.sort();
+    }
+
+    private static int minuteOfDay(long localMillis) {
+        long millisOfDay = localMillis % MILLIS_PER_DAY;
+        if (millisOfDay < 0) {
+            millisOfDay += MILLIS_PER_DAY;
+        }
+        return (int) (millisOfDay / MILLIS_PER_MINUTE);
+    }
+
+    /**
+     * Whether the provider would return an instance with this title when
+     * asked for the instances of the given clerks.
+     */
+    private static boolean isClerk(String title, String[] clerks) {
+        if (clerks == null) {
+            return true;
+        }
+        if (title == null) {
+            return false;
+        }
+        for (String clerk : clerks) {
+            if (title.equalsIgnoreCase(clerk)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the series of the current change generation, reading them
+     * from the provider if it changed since they were last read.
+     */
+    private synchronized SeriesSet getSeriesSet() {
+        if (!mObserverRegistered && !mReleased) {
+            mContext.getContentResolver().registerContentObserver(CalendarContract.CONTENT_URI,
+                    true, mObserver);
+            mObserverRegistered = true;
+        }
+        int generation = mGeneration.get();
+        if (mSeriesSet == null || generation != mLoadedGeneration) {
+            mSeriesSet = loadSeriesSet();
+            mLoadedGeneration = generation;
+        }
+        return mSeriesSet;
+    }
+
+    private SeriesSet loadSeriesSet() {
+        LoaderMetrics metrics = LoaderMetrics.current();
+        long start = System.nanoTime();
+
+        LongSparseArray<ArrayList<Long>> replaced = loadReplacedOccurrences();
+        ArrayList<Series> series = new ArrayList<Series>();
+        // The series left to the provider
+        StringBuilder fallbackIds = new StringBuilder();
+
+        Cursor cursor = null;
+        try {
+            cursor = mContext.getContentResolver().query(Events.CONTENT_URI, SERIES_PROJECTION,
+                    SERIES_WHERE, null, null);
+            if (cursor != null) {
+                if (metrics != null) {
+                    metrics.record(LoaderMetrics.HISTOGRAM_ROWS, cursor.getCount());
+                }
+                while (cursor.moveToNext()) {
+                    try {
+                        series.add(readSeries(cursor, replaced));
+                    } catch (IllegalArgumentException e) {
+                        if (DEBUG) {
+                            Log.d(TAG, "Left to the provider: " + e.getMessage());
+                        }
+                        if (fallbackIds.length() > 0) {
+                            fallbackIds.append(',');
+                        }
+                        fallbackIds.append(cursor.getLong(SERIES_ID_INDEX));
+                    }
+                }
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+
+        String selection = "(" + CalendarContract.Instances.RRULE + " IS NULL AND "
+                + CalendarContract.Instances.RDATE + " IS NULL)";
+        if (fallbackIds.length() > 0) {
+            selection += " OR " + CalendarContract.Instances.EVENT_ID + " IN (" + fallbackIds
+                    + ")";
+        }
+
+        if (metrics != null) {
+            metrics.recordSince(LoaderMetrics.HISTOGRAM_QUERY, start);
+        }
+        return new SeriesSet(series.toArray(new Series[series.size()]), selection);
+    }
+
+    /**
+     * Reads the series the cursor points at.
+     *
+     * @throws IllegalArgumentException if the series has to be expanded by
+     *             the provider
+     */
+    private Series readSeries(Cursor cursor, LongSparseArray<ArrayList<Long>> replaced) {
+        if (!cursor.isNull(SERIES_EXRULE_INDEX)) {
+            throw new IllegalArgumentException("EXRULE");
+        }
+
+        Series s = new Series();
+        s.id = cursor.getLong(SERIES_ID_INDEX);
+        s.title = cursor.getString(SERIES_TITLE_INDEX);
+        s.location = cursor.getString(SERIES_LOCATION_INDEX);
+        s.allDay = cursor.getInt(SERIES_ALL_DAY_INDEX) != 0;
+        s.hasColor = !cursor.isNull(SERIES_COLOR_INDEX);
+        if (s.hasColor) {
+            s.color = CalendarUtils.getDisplayColorFromColor(cursor.getInt(SERIES_COLOR_INDEX));
+        }
+        s.selfAttendeeStatus = cursor.getInt(SERIES_SELF_ATTENDEE_STATUS_INDEX);
+        s.dtstart = cursor.getLong(SERIES_DTSTART_INDEX);
+        if (!cursor.isNull(SERIES_LAST_DATE_INDEX)) {
+            s.lastDate = cursor.getLong(SERIES_LAST_DATE_INDEX);
+        }
+
+        String duration = cursor.getString(SERIES_DURATION_INDEX);
+        if (!TextUtils.isEmpty(duration)) {
+            s.duration = RecurrenceRule.parseDuration(duration);
+        } else if (!cursor.isNull(SERIES_DTEND_INDEX)) {
+            s.duration = cursor.getLong(SERIES_DTEND_INDEX) - s.dtstart;
+        } else if (s.allDay) {
+            s.duration = MILLIS_PER_DAY;
+        }
+
+        // Allday events are stored in UTC, whatever their time zone says
+        String timeZone = cursor.getString(SERIES_TIMEZONE_INDEX);
+        s.timeZone = s.allDay || timeZone == null ? UTC : TimeZone.getTimeZone(timeZone);
+
+        String rrule = cursor.getString(SERIES_RRULE_INDEX);
+        if (TextUtils.isEmpty(rrule)) {
+            s.rules = new RecurrenceRule[0];
+        } else {
+            // Several rules are separated by new lines
+            String[] rules = rrule.split("\n");
+            s.rules = new RecurrenceRule[rules.length];
+            for (int i = 0; i < rules.length; i++) {
+                s.rules[i] = RecurrenceRule.parse(rules[i].trim());
+            }
+        }
+
+        String rdate = cursor.getString(SERIES_RDATE_INDEX);
+        s.rdates = TextUtils.isEmpty(rdate)
+                ? new long[0] : RecurrenceRule.parseDateList(rdate, s.timeZone);
+
+        String exdate = cursor.getString(SERIES_EXDATE_INDEX);
+        long[] exdates = TextUtils.isEmpty(exdate)
+                ? new long[0] : RecurrenceRule.parseDateList(exdate, s.timeZone);
+        ArrayList<Long> exceptions = replaced.get(s.id);
+        if (exceptions != null) {
+            int count = exdates.length;
+            exdates = Arrays.copyOf(exdates, count + exceptions.size());
+            for (int i = 0; i < exceptions.size(); i++) {
+                exdates[count + i] = exceptions.get(i);
+            }
+            Arrays.sort(exdates);
+        }
+        s.exdates = exdates;
+        return s;
+    }
+
+    /**
+     * Returns the original times of the exceptions of every series, by
+     * series id. The exceptions themselves are regular instances that the
+     * provider returns.
+     */
+    private LongSparseArray<ArrayList<Long>> loadReplacedOccurrences() {
+        LongSparseArray<ArrayList<Long>> replaced = new LongSparseArray<ArrayList<Long>>();
+        Cursor cursor = null;
+        try {
+            cursor = mContext.getContentResolver().query(Events.CONTENT_URI,
+                    EXCEPTION_PROJECTION, EXCEPTION_WHERE, null, null);
+            if (cursor == null) {
+                return replaced;
+            }
+            while (cursor.moveToNext()) {
+                long originalId = cursor.getLong(EXCEPTION_ORIGINAL_ID_INDEX);
+                ArrayList<Long> times = replaced.get(originalId);
+                if (times == null) {
+                    times = new ArrayList<Long>();
+                    replaced.put(originalId, times);
+                }
+                times.add(cursor.getLong(EXCEPTION_ORIGINAL_INSTANCE_TIME_INDEX));
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return replaced;
+    }
+}
@@ -0,0 +1,509 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.appointment;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+/**
+ * An RFC 2445 recurrence rule, as stored in the RRULE column of an event,
+ * and the expansion of its occurrences.
+ *
+ * Only the parts the calendar apps write are supported: DAILY, WEEKLY,
+ * MONTHLY and YEARLY frequencies with INTERVAL, COUNT, UNTIL, WKST, BYDAY,
+ * BYMONTHDAY and BYMONTH. {@link #parse} throws IllegalArgumentException
+ * for anything else, so that such events are left to the provider.
+ */
+class RecurrenceRule {
+
+    static final int DAILY = 0;
+    static final int WEEKLY = 1;
+    static final int MONTHLY = 2;
+    static final int YEARLY = 3;
+
+    private static final String[] FREQUENCIES = {
+            "DAILY", "WEEKLY", "MONTHLY", "YEARLY"
+    };
+    // In the order of the Calendar.SUNDAY to Calendar.SATURDAY constants
+    private static final String[] WEEKDAYS = {
+            "SU", "MO", "TU", "WE", "TH", "FR", "SA"
+    };
+
+    private static final long MILLIS_PER_SECOND = 1000;
+    private static final long MILLIS_PER_MINUTE = 60 * MILLIS_PER_SECOND;
+    private static final long MILLIS_PER_HOUR = 60 * MILLIS_PER_MINUTE;
+    private static final long MILLIS_PER_DAY = 24 * MILLIS_PER_HOUR;
+
+    // Upper bound of the periods walked by one expansion, in case a rule
+    // hardly ever matches
+    private static final int MAX_PERIODS = 100000;
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    /**
+     * A growable list of occurrence times, in UTC millis.
+     */
+    static class Occurrences {
+        long[] times = new long[16];
+        int size;
+
+        void add(long time) {
+            if (size == times.length) {
+                times = Arrays.copyOf(times, size * 2);
+            }
+            times[size++] = time;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        void sort() {
+            Arrays.sort(times, 0, size);
+        }
+    }
+
+    int freq;
+    int interval = 1;
+    // 0 if the number of occurrences is not bounded
+    int count;
+    // Time of the last possible occurrence, in UTC millis
+    long until = Long.MAX_VALUE;
+    int weekStart = Calendar.MONDAY;
+    // Calendar.SUNDAY to Calendar.SATURDAY, with the matching ordinals: 0 for
+    // every such day of the period, n for the nth one, -n for the nth last
+    int[] byDay;
+    int[] byDayOrdinal;
+    // 1 to 31, or -1 to -31 counting from the end of the month
+    int[] byMonthDay;
+    // 1 to 12
+    int[] byMonth;
+
+    /**
+     * Parses the value of an RRULE column, for instance
+     * "FREQ=WEEKLY;INTERVAL=2;BYDAY=MO,TH;UNTIL=20241231T235959Z".
+     *
+     * @throws IllegalArgumentException if the rule is malformed or uses a
+     *             part that is not supported
+     */
+    static RecurrenceRule parse(String rule) {
+        RecurrenceRule r = new RecurrenceRule();
+        r.freq = -1;
+        for (String part : rule.split(";")) {
+            int equals = part.indexOf('=');
+            if (equals < 0) {
+                throw new IllegalArgumentException("Malformed rule " + rule);
+            }
+            String name = part.substring(0, equals).toUpperCase();
+            String value = part.substring(equals + 1).toUpperCase();
+            if (name.equals("FREQ")) {
+                r.freq = Arrays.asList(FREQUENCIES).indexOf(value);
+                if (r.freq < 0) {
+                    throw new IllegalArgumentException("Unsupported frequency " + value);
+                }
+            } else if (name.equals("INTERVAL")) {
+                r.interval = Math.max(parseInt(value), 1);
+            } else if (name.equals("COUNT")) {
+                r.count = Math.max(parseInt(value), 1);
+            } else if (name.equals("UNTIL")) {
+                // Like the provider, a floating UNTIL is taken as UTC
+                r.until = parseDateTime(value, UTC);
+            } else if (name.equals("WKST")) {
+                r.weekStart = parseWeekday(value);
+            } else if (name.equals("BYDAY")) {
+                String[] days = value.split(",");
+                r.byDay = new int[days.length];
+                r.byDayOrdinal = new int[days.length];
+                for (int i = 0; i < days.length; i++) {
+                    String day = days[i];
+                    int split = day.length() - 2;
+                    if (split < 0) {
+                        throw new IllegalArgumentException("Malformed BYDAY " + value);
+                    }
+                    r.byDay[i] = parseWeekday(day.substring(split));
+                    if (split > 0) {
+                        String ordinal = day.substring(0, split);
+                        if (ordinal.startsWith("+")) {
+                            ordinal = ordinal.substring(1);
+                        }
+                        r.byDayOrdinal[i] = parseInt(ordinal);
+                    }
+                }
+            } else if (name.equals("BYMONTHDAY")) {
+                r.byMonthDay = parseInts(value, -31, 31);
+            } else if (name.equals("BYMONTH")) {
+                r.byMonth = parseInts(value, 1, 12);
+            } else {
+                // BYSETPOS, BYWEEKNO, BYYEARDAY, BYHOUR and so on
+                throw new IllegalArgumentException("Unsupported part " + name);
+            }
+        }
+
+        if (r.freq < 0) {
+            throw new IllegalArgumentException("No frequency in " + rule);
+        }
+        if (r.byDay != null) {
+            for (int ordinal : r.byDayOrdinal) {
+                if (ordinal != 0 && r.freq != MONTHLY
+                        && (r.freq != YEARLY || r.byMonth == null)) {
+                    // Only the nth weekday of a month is supported
+                    throw new IllegalArgumentException("Unsupported BYDAY in " + rule);
+                }
+            }
+        }
+        if (r.freq == YEARLY && r.byMonth == null
+                && (r.byDay != null || r.byMonthDay != null)) {
+            throw new IllegalArgumentException("Unsupported yearly rule " + rule);
+        }
+        return r;
+    }
+
+    /**
+     * Adds the start times of the occurrences from rangeStart included to
+     * rangeEnd excluded to out, in increasing order. The first occurrence
+     * is the first time the rule matches from dtstart on, and the wall clock
+     * time of dtstart in the given time zone is the one of every occurrence.
+     *
+     * @param calendar Scratch calendar in the time zone of the event
+     */
+    void expand(Calendar calendar, long dtstart, long rangeStart, long rangeEnd,
+            Occurrences out) {
+        calendar.setTimeInMillis(dtstart);
+        int startYear = calendar.get(Calendar.YEAR);
+        int startMonth = calendar.get(Calendar.MONTH);
+        int startDayOfMonth = calendar.get(Calendar.DAY_OF_MONTH);
+        int startDayOfWeek = calendar.get(Calendar.DAY_OF_WEEK);
+        int hour = calendar.get(Calendar.HOUR_OF_DAY);
+        int minute = calendar.get(Calendar.MINUTE);
+        int second = calendar.get(Calendar.SECOND);
+
+        // Without a count, the occurrences before the range do not matter,
+        // so skip the periods ending before it
+        int firstPeriod = 0;
+        if (count == 0 && rangeStart > dtstart) {
+            calendar.setTimeInMillis(rangeStart);
+            int periods;
+            switch (freq) {
+                case DAILY:
+                    periods = (int) ((rangeStart - dtstart) / MILLIS_PER_DAY);
+                    break;
+                case WEEKLY:
+                    periods = (int) ((rangeStart - dtstart) / (7 * MILLIS_PER_DAY));
+                    break;
+                case MONTHLY:
+                    periods = (calendar.get(Calendar.YEAR) - startYear) * 12
+                            + calendar.get(Calendar.MONTH) - startMonth;
+                    break;
+                default:
+                    periods = calendar.get(Calendar.YEAR) - startYear;
+                    break;
+            }
+            // Step back one period for daylight saving shifts and partial weeks
+            firstPeriod = Math.max(periods / interval - 1, 0);
+        }
+
+        Occurrences candidates = new Occurrences();
+        int seen = 0;
+        for (int period = firstPeriod; period < firstPeriod + MAX_PERIODS; period++) {
+            candidates.clear();
+            int step = period * interval;
+            switch (freq) {
+                case DAILY:
+                    calendar.clear();
+                    calendar.set(startYear, startMonth, startDayOfMonth, hour, minute, second);
+                    calendar.add(Calendar.DAY_OF_MONTH, step);
+                    if (matchesDay(calendar)) {
+                        candidates.add(calendar.getTimeInMillis());
+                    }
+                    break;
+                case WEEKLY:
+                    calendar.clear();
+                    calendar.set(startYear, startMonth, startDayOfMonth, hour, minute, second);
+                    calendar.add(Calendar.DAY_OF_MONTH, 7 * step
+                            - (startDayOfWeek - weekStart + 7) % 7);
+                    for (int i = 0; i < 7; i++) {
+                        if (byDay == null
+                                ? calendar.get(Calendar.DAY_OF_WEEK) == startDayOfWeek
+                                : matchesDay(calendar)) {
+                            candidates.add(calendar.getTimeInMillis());
+                        }
+                        calendar.add(Calendar.DAY_OF_MONTH, 1);
+                    }
+                    break;
+                case MONTHLY: {
+                    int month = startMonth + step;
+                    addMonth(calendar, startYear + month / 12, month % 12, startDayOfMonth,
+                            hour, minute, second, candidates);
+                    break;
+                }
+                default:
+                    if (byMonth == null) {
+                        addMonth(calendar, startYear + step, startMonth, startDayOfMonth,
+                                hour, minute, second, candidates);
+                    } else {
+                        for (int month : byMonth) {
+                            addMonth(calendar, startYear + step, month - 1, startDayOfMonth,
+                                    hour, minute, second, candidates);
+                        }
+                    }
+                    break;
+            }
+
+            candidates.sort();
+            for (int i = 0; i < candidates.size; i++) {
+                long time = candidates.times[i];
+                if (time < dtstart) {
+                    continue;
+                }
+                if (time > until || time >= rangeEnd) {
+                    return;
+                }
+                seen++;
+                if (time >= rangeStart) {
+                    out.add(time);
+                }
+                if (seen == count) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the days of a month the rule matches.
+     */
+    private void addMonth(Calendar calendar, int year, int month, int startDayOfMonth,
+            int hour, int minute, int second, Occurrences out) {
+        if (byMonth != null && !contains(byMonth, month + 1)) {
+            return;
+        }
+        calendar.clear();
+        calendar.set(year, month, 1, hour, minute, second);
+        int numDays = calendar.getActualMaximum(Calendar.DAY_OF_MONTH);
+        int firstDayOfWeek = calendar.get(Calendar.DAY_OF_WEEK);
+
+        for (int day = 1; day <= numDays; day++) {
+            int dayOfWeek = (firstDayOfWeek - 1 + day - 1) % 7 + 1;
+            boolean matches;
+            if (byMonthDay == null && byDay == null) {
+                matches = day == startDayOfMonth;
+            } else {
+                matches = (byMonthDay == null || matchesMonthDay(day, numDays))
+                        && (byDay == null || matchesWeekday(day, dayOfWeek, numDays));
+            }
+            if (matches) {
+                calendar.set(year, month, day, hour, minute, second);
+                out.add(calendar.getTimeInMillis());
+            }
+        }
+    }
+
+    /**
+     * Whether the day of a daily or weekly rule passes the BY filters.
+     */
+    private boolean matchesDay(Calendar calendar) {
+        if (byMonth != null && !contains(byMonth, calendar.get(Calendar.MONTH) + 1)) {
+            return false;
+        }
+        if (byMonthDay != null && !matchesMonthDay(calendar.get(Calendar.DAY_OF_MONTH),
+                calendar.getActualMaximum(Calendar.DAY_OF_MONTH))) {
+            return false;
+        }
+        return byDay == null || contains(byDay, calendar.get(Calendar.DAY_OF_WEEK));
+    }
+
+    private boolean matchesMonthDay(int day, int numDays) {
+        for (int monthDay : byMonthDay) {
+            if (monthDay == day || monthDay == day - numDays - 1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean matchesWeekday(int day, int dayOfWeek, int numDays) {
+        for (int i = 0; i < byDay.length; i++) {
+            if (byDay[i] != dayOfWeek) {
+                continue;
+            }
+            int ordinal = byDayOrdinal[i];
+            if (ordinal == 0
+                    || (ordinal > 0 && (day - 1) / 7 + 1 == ordinal)
+                    || (ordinal < 0 && (numDays - day) / 7 + 1 == -ordinal)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parses an RFC 2445 duration such as "P1D", "PT1H30M" or "P3600S".
+     *
+     * @return The duration in millis
+     * @throws IllegalArgumentException if the duration is malformed
+     */
+    static long parseDuration(String duration) {
+        int i = 0;
+        long sign = 1;
+        if (duration.startsWith("-")) {
+            sign = -1;
+            i++;
+        } else if (duration.startsWith("+")) {
+            i++;
+        }
+        if (i >= duration.length() || duration.charAt(i) != 'P') {
+            throw new IllegalArgumentException("Malformed duration " + duration);
+        }
+        i++;
+
+        long millis = 0;
+        long n = -1;
+        for (; i < duration.length(); i++) {
+            char c = duration.charAt(i);
+            if (c >= '0' && c <= '9') {
+                n = (n < 0 ? 0 : n * 10) + c - '0';
+                continue;
+            }
+            if (c == 'T') {
+                continue;
+            }
+            if (n < 0) {
+                throw new IllegalArgumentException("Malformed duration " + duration);
+            }
+            switch (c) {
+                case 'W':
+                    millis += n * 7 * MILLIS_PER_DAY;
+                    break;
+                case 'D':
+                    millis += n * MILLIS_PER_DAY;
+                    break;
+                case 'H':
+                    millis += n * MILLIS_PER_HOUR;
+                    break;
+                case 'M':
+                    millis += n * MILLIS_PER_MINUTE;
+                    break;
+                case 'S':
+                    millis += n * MILLIS_PER_SECOND;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Malformed duration " + duration);
+            }
+            n = -1;
+        }
+        if (n >= 0) {
+            throw new IllegalArgumentException("Malformed duration " + duration);
+        }
+        return sign * millis;
+    }
+
+    /**
+     * Parses the value of an RDATE or EXDATE column: a comma separated list
+     * of dates or date-times, optionally preceded by a time zone and a
+     * semicolon, as in "Europe/Paris;20240102T090000,20240109T090000".
+     *
+     * @param timeZone The time zone of the date-times that do not give one
+     * @return The times in UTC millis, sorted
+     * @throws IllegalArgumentException if a value is malformed
+     */
+    static long[] parseDateList(String list, TimeZone timeZone) {
+        int semicolon = list.indexOf(';');
+        if (semicolon >= 0) {
+            timeZone = TimeZone.getTimeZone(list.substring(0, semicolon));
+            list = list.substring(semicolon + 1);
+        }
+        String[] values = list.split(",");
+        long[] times = new long[values.length];
+        for (int i = 0; i < values.length; i++) {
+            times[i] = parseDateTime(values[i].trim(), timeZone);
+        }
+        Arrays.sort(times);
+        return times;
+    }
+
+    /**
+     * Parses a date, "20240102", taken as midnight UTC the way allday events
+     * are stored, or a date-time, "20240102T090000" in the given time zone
+     * or "20240102T090000Z" in UTC.
+     *
+     * @throws IllegalArgumentException if the value is malformed
+     */
+    static long parseDateTime(String value, TimeZone timeZone) {
+        int length = value.length();
+        if (length != 8 && length != 15 && length != 16) {
+            throw new IllegalArgumentException("Malformed date " + value);
+        }
+        if (length == 8 || value.charAt(length - 1) == 'Z') {
+            timeZone = UTC;
+        } else if (length == 16) {
+            throw new IllegalArgumentException("Malformed date " + value);
+        }
+
+        Calendar calendar = new GregorianCalendar(timeZone);
+        calendar.clear();
+        calendar.set(parseInt(value.substring(0, 4)), parseInt(value.substring(4, 6)) - 1,
+                parseInt(value.substring(6, 8)));
+        if (length > 8) {
+            if (value.charAt(8) != 'T') {
+                throw new IllegalArgumentException("Malformed date " + value);
+            }
+            calendar.set(Calendar.HOUR_OF_DAY, parseInt(value.substring(9, 11)));
+            calendar.set(Calendar.MINUTE, parseInt(value.substring(11, 13)));
+            calendar.set(Calendar.SECOND, parseInt(value.substring(13, 15)));
+        }
+        return calendar.getTimeInMillis();
+    }
+
+    private static int parseWeekday(String value) {
+        int index = Arrays.asList(WEEKDAYS).indexOf(value);
+        if (index < 0) {
+            throw new IllegalArgumentException("Malformed weekday " + value);
+        }
+        return Calendar.SUNDAY + index;
+    }
+
+    private static int[] parseInts(String value, int min, int max) {
+        String[] values = value.split(",");
+        int[] ints = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            ints[i] = parseInt(values[i]);
+            if (ints[i] < min || ints[i] > max || ints[i] == 0) {
+                throw new IllegalArgumentException("Out of range " + value);
+            }
+        }
+        return ints;
+    }
+
+    private static int parseInt(String value) {
+        if (value.startsWith("+")) {
+            value = value.substring(1);
+        }
+        // NumberFormatException is an IllegalArgumentException
+        return Integer.parseInt(value);
+    }
+
+    private static boolean contains(int[] values, int value) {
+        for (int v : values) {
+            if (v == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
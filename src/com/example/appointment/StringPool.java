@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.appointment;
+
+import java.util.HashMap;
+
+/**
+ * A bounded intern table for the strings of loaded events, shared by every
+ * load so that the same title is one String however often it is loaded.
+ *
+ * Strings live in two generations. Once the current generation is full it
+ * becomes the previous one and the oldest generation is dropped, so strings
+ * that are still being loaded survive and the others go away. Pinned
+ * strings are never dropped.
+ *
+ * All methods are synchronized since loads run on several threads.
+ */
+class StringPool {
+
+    private final int mGenerationSize;
+    private HashMap<String, String> mCurrent = new HashMap<String, String>();
+    private HashMap<String, String> mPrevious = new HashMap<String, String>();
+    private final HashMap<String, String> mPinned = new HashMap<String, String>();
+
+    /**
+     * @param generationSize Number of strings after which a new generation starts
+     */
+    StringPool(int generationSize) {
+        mGenerationSize = generationSize;
+    }
+
+    /**
+     * Returns the pooled instance of the given string.
+     */
+    synchronized String intern(String s) {
+        if (s == null) {
+            return null;
+        }
+        String pooled = mPinned.get(s);
+        if (pooled != null) {
+            return pooled;
+        }
+        pooled = mCurrent.get(s);
+        if (pooled != null) {
+            return pooled;
+        }
+
+        pooled = mPrevious.remove(s);
+        if (pooled == null) {
+            pooled = s;
+        }
+        if (mCurrent.size() >= mGenerationSize) {
+            mPrevious = mCurrent;
+            mCurrent = new HashMap<String, String>();
+        }
+        mCurrent.put(pooled, pooled);
+        return pooled;
+    }
+
+    /**
+     * Makes the given instances the pooled ones for good, replacing the
+     * pins of the previous call.
+     */
+    synchronized void pin(String[] strings) {
+        mPinned.clear();
+        if (strings == null) {
+            return;
+        }
+        for (String s : strings) {
+            if (s != null) {
+                mPinned.put(s, s);
+                mCurrent.remove(s);
+                mPrevious.remove(s);
+            }
+        }
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.appointment;
+
+import android.os.CancellationSignal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An in-memory {@link EventSource} generating a fixed number of appointments
+ * per clerk and day. The same arguments always generate the same events, so
+ * loads can be compared and timed without any calendar data.
+ *
+ * Clerks are named "1" to "numClerks", the way the fragment names them, and
+ * every appointment is titled with the name of its clerk. Times are in UTC.
+ */
+public class SyntheticEventSource implements EventSource {
+
+    // Julian day of the epoch, see Time.EPOCH_JULIAN_DAY
+    private static final int EPOCH_JULIAN_DAY = 2440588;
+    private static final long MILLIS_PER_MINUTE = 60 * 1000;
+    private static final long MILLIS_PER_DAY = 24 * 60 * MILLIS_PER_MINUTE;
+    private static final int MINUTES_PER_DAY = 24 * 60;
+
+    // Appointments are spread over opening hours, from 8:00 to 18:00
+    private static final int FIRST_MINUTE = 8 * 60;
+    private static final int LAST_MINUTE = 18 * 60;
+    private static final int SLOT_MINUTES = 15;
+    private static final int MAX_SLOTS_PER_APPOINTMENT = 6;
+
+    private static final int[] COLORS = {
+            0xff6bd697, 0xff33b5e5, 0xffffbb33, 0xffff4444, 0xffaa66cc, 0xff99cc00,
+    };
+
+    /**
+     * Sorts the same way as Event.SORT_EVENTS_BY.
+     */
+    private static final Comparator<Event> EVENT_COMPARATOR = new Comparator<Event>() {
+        @Override
+        public int compare(Event lhs, Event rhs) {
+            if (lhs.startMillis != rhs.startMillis) {
+                return lhs.startMillis < rhs.startMillis ? -1 : 1;
+            }
+            if (lhs.endMillis != rhs.endMillis) {
+                return lhs.endMillis > rhs.endMillis ? -1 : 1;
+            }
+            return lhs.title.toString().compareTo(rhs.title.toString());
+        }
+    };
+
+    private final int mNumClerks;
+    private final int mAppointmentsPerDay;
+    private final long mSeed;
+    private final String[] mClerkNames;
+    // Which clerks to generate appointments for, null for every clerk
+    private volatile boolean[] mLoadedClerks;
+
+    /**
+     * @param numClerks Number of clerks to generate appointments for
+     * @param appointmentsPerDay Number of appointments of each clerk on each day
+     * @param seed Changes the generated times and durations
+     */
+    public SyntheticEventSource(int numClerks, int appointmentsPerDay, long seed) {
+        mNumClerks = numClerks;
+        mAppointmentsPerDay = appointmentsPerDay;
+        mSeed = seed;
+        mClerkNames = new String[numClerks];
+        for (int i = 0; i < numClerks; i++) {
+            mClerkNames[i] = Event.intern(String.valueOf(i + 1));
+        }
+    }
+
+    @Override
+    public void setClerks(String[] clerks) {
+        if (clerks == null) {
+            mLoadedClerks = null;
+            return;
+        }
+        boolean[] loadedClerks = new boolean[mNumClerks];
+        for (int i = 0; i < mNumClerks; i++) {
+            for (String clerk : clerks) {
+                if (mClerkNames[i].equalsIgnoreCase(clerk)) {
+                    loadedClerks[i] = true;
+                }
+            }
+        }
+        mLoadedClerks = loadedClerks;
+    }
+
+    @Override
+    public void loadEvents(ArrayList<Event> events, int startDay, int numDays,
+            int requestId, AtomicInteger sequenceNumber, CancellationSignal cancellationSignal) {
+        loadDays(events, startDay, numDays, 0, MINUTES_PER_DAY, true, requestId,
+                sequenceNumber, cancellationSignal);
+    }
+
+    @Override
+    public void loadEventsInWindow(ArrayList<Event> events, int startDay, int numDays,
+            int startMinute, int endMinute, int requestId, AtomicInteger sequenceNumber,
+            CancellationSignal cancellationSignal) {
+        loadDays(events, startDay, numDays, startMinute, endMinute, true, requestId,
+                sequenceNumber, cancellationSignal);
+    }
+
+    @Override
+    public void loadEventBlock(EventBlock block, int startDay, int numDays,
+            int requestId, AtomicInteger sequenceNumber, CancellationSignal cancellationSignal) {
+        // Only copied into the block, so not taken from the recycled events
+        ArrayList<Event> events = new ArrayList<Event>();
+        loadDays(events, startDay, numDays, 0, MINUTES_PER_DAY, false, requestId,
+                sequenceNumber, cancellationSignal);
+
+        block.clear();
+        int count = events.size();
+        for (int n = 0; n < count; n++) {
+            Event e = events.get(n);
+            int i = block.append();
+            block.ids[i] = e.id;
+            block.titles[i] = Event.intern(e.title.toString());
+            block.locations[i] = null;
+            block.organizers[i] = null;
+            block.color[i] = e.color;
+            block.startDay[i] = e.startDay;
+            block.endDay[i] = e.endDay;
+            block.startTime[i] = e.startTime;
+            block.endTime[i] = e.endTime;
+            block.startMillis[i] = e.startMillis;
+            block.endMillis[i] = e.endMillis;
+            block.flags[i] = 0;
+            block.selfAttendeeStatus[i] = e.selfAttendeeStatus;
+        }
+    }
+
+    @Override
+    public EventDetails loadEventDetails(long eventId) {
+        // Generated appointments have no alarm, organizer or recurrence
+        return new EventDetails();
+    }
+
+    @Override
+    public long[] loadDaySignatures(int startDay, int numDays) {
+        long[] signatures = new long[numDays];
+        ArrayList<Event> events = new ArrayList<Event>();
+        for (int i = 0; i < numDays; i++) {
+            events.clear();
+            generateDay(startDay + i, 0, MINUTES_PER_DAY, false, events);
+            signatures[i] = Event.daySignature(events);
+        }
+        return signatures;
+    }
+
+    @Override
+    public void loadEventDays(DayOccupancy occupancy) {
+        occupancy.clear();
+        int startDay = occupancy.getStartDay();
+        int endDay = startDay + occupancy.getNumDays() - 1;
+        if (mAppointmentsPerDay == 0) {
+            return;
+        }
+        boolean[] loadedClerks = mLoadedClerks;
+        for (int day = startDay; day <= endDay; day++) {
+            for (int clerk = 0; clerk < mNumClerks; clerk++) {
+                if (loadedClerks != null && !loadedClerks[clerk]) {
+                    continue;
+                }
+                for (int n = 0; n < mAppointmentsPerDay; n++) {
+                    occupancy.addSpan(day, day, mClerkNames[clerk]);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void release() {
+        // Nothing to let go of
+    }
+
+    /**
+     * Replaces events with the appointments of the given days overlapping
+     * the minutes from startMinute to endMinute, stopping early like
+     * {@link #loadEvents}.
+     *
+     * @param recycled Whether the events are handed to the caller, and so
+     *            taken from the recycled events, rather than thrown away
+     */
+    private void loadDays(ArrayList<Event> events, int startDay, int numDays, int startMinute,
+            int endMinute, boolean recycled, int requestId, AtomicInteger sequenceNumber,
+            CancellationSignal cancellationSignal) {
+        events.clear();
+        for (int day = startDay; day < startDay + numDays; day++) {
+            if (requestId != sequenceNumber.get()
+                    || (cancellationSignal != null && cancellationSignal.isCanceled())) {
+                return;
+            }
+            generateDay(day, startMinute, endMinute, recycled, events);
+        }
+    }
+
+    /**
+     * Appends the appointments of every clerk on the given day overlapping
+     * the minutes from windowStart to windowEnd to events, sorted the way
+     * the provider sorts them, see {@link #loadDays} for recycled.
+     */
+    private void generateDay(int julianDay, int windowStart, int windowEnd, boolean recycled,
+            ArrayList<Event> events) {
+        int first = events.size();
+        long dayStartMillis = (julianDay - EPOCH_JULIAN_DAY) * MILLIS_PER_DAY;
+        int numSlots = (LAST_MINUTE - FIRST_MINUTE) / SLOT_MINUTES;
+        boolean[] loadedClerks = mLoadedClerks;
+
+        for (int clerk = 0; clerk < mNumClerks; clerk++) {
+            if (loadedClerks != null && !loadedClerks[clerk]) {
+                continue;
+            }
+            for (int n = 0; n < mAppointmentsPerDay; n++) {
+                long id = ((long) julianDay * mNumClerks + clerk) * mAppointmentsPerDay + n;
+                long random = mix(id ^ mSeed);
+
+                int startMinute = FIRST_MINUTE
+                        + (int) ((random & 0xffff) % numSlots) * SLOT_MINUTES;
+                int slots = 1 + (int) (((random >>> 16) & 0xffff) % MAX_SLOTS_PER_APPOINTMENT);
+                int endMinute = Math.min(startMinute + slots * SLOT_MINUTES, LAST_MINUTE);
+                if (startMinute >= windowEnd || endMinute <= windowStart) {
+                    continue;
+                }
+
+                Event e = recycled ? Event.newInstance() : new Event();
+                e.id = id;
+                e.title = mClerkNames[clerk];
+                e.color = COLORS[clerk % COLORS.length];
+                e.startDay = julianDay;
+                e.endDay = julianDay;
+                e.startTime = startMinute;
+                e.endTime = endMinute;
+                e.startMillis = dayStartMillis + startMinute * MILLIS_PER_MINUTE;
+                e.endMillis = dayStartMillis + endMinute * MILLIS_PER_MINUTE;
+                events.add(e);
+            }
+        }
+        Collections.sort(events.subList(first, events.size()), EVENT_COMPARATOR);
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.appointment;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * A bounded, least-recently-used cache of rendered tiles of a view's
+ * content, each one a bitmap of a fixed part of the content.
+ *
+ * Tiles are keyed by an int the view derives from their position. A tile
+ * is rendered elsewhere into a bitmap from {@link #takeBitmap} and keeps
+ * showing its previous bitmap until the new one is set. Invalidating a
+ * tile bumps its version, so that a bitmap rendered for an older version
+ * can be told apart. The bitmaps of dropped tiles are kept for the next
+ * tiles of the same size, within the budget. Only used from the UI thread.
+ */
+class TileCache {
+
+    static class Tile {
+        final int key;
+        // The part of the content the tile covers
+        final Rect bounds = new Rect();
+        // What the tile shows, null if nothing was rendered or if it is empty
+        Bitmap bitmap;
+        // Whether the bitmap holds the current content of the bounds
+        boolean valid;
+        // Bumped whenever the content of the bounds changes
+        int version;
+        // The version a bitmap is being rendered for, -1 if none
+        int requestedVersion = -1;
+
+        Tile(int key) {
+            this.key = key;
+        }
+
+        void invalidate() {
+            valid = false;
+            version++;
+        }
+    }
+
+    // Access-ordered so that iteration starts at the least recently used tile.
+    private final LinkedHashMap<Integer, Tile> mTiles =
+            new LinkedHashMap<Integer, Tile>(32, 0.75f, true);
+    // Bitmaps of dropped tiles, oldest first
+    private final ArrayList<Bitmap> mSpareBitmaps = new ArrayList<Bitmap>();
+    private int mMaxBytes;
+    // Bytes held by the bitmaps of the tiles and the spare bitmaps
+    private int mSize;
+
+    /**
+     * @param maxBytes Upper bound of the memory held by the bitmaps
+     */
+    TileCache(int maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Changes the budget of the cache, dropping bitmaps if it shrank.
+     */
+    void setBudget(int maxBytes) {
+        mMaxBytes = maxBytes;
+        trim();
+    }
+
+    /**
+     * Returns the tile with the given key covering the given bounds. The
+     * tile is invalidated if its bounds changed, and loses its bitmap if
+     * the size changed too.
+     */
+    Tile obtain(int key, int left, int top, int right, int bottom) {
+        Tile tile = mTiles.get(key);
+        if (tile == null) {
+            tile = new Tile(key);
+            mTiles.put(key, tile);
+        }
+
+        Rect bounds = tile.bounds;
+        if (bounds.left != left || bounds.top != top || bounds.right != right
+                || bounds.bottom != bottom) {
+            if (bounds.width() != right - left || bounds.height() != bottom - top) {
+                setBitmap(tile, null);
+            }
+            bounds.set(left, top, right, bottom);
+            tile.invalidate();
+        }
+        return tile;
+    }
+
+    /**
+     * Whether the tile is still in the cache.
+     */
+    boolean contains(Tile tile) {
+        return mTiles.get(tile.key) == tile;
+    }
+
+    /**
+     * Replaces the bitmap a tile shows, which is null for an empty tile,
+     * keeping the previous one for reuse.
+     */
+    void setBitmap(Tile tile, Bitmap bitmap) {
+        if (tile.bitmap != null) {
+            // Still counted, as a spare bitmap
+            mSpareBitmaps.add(tile.bitmap);
+        }
+        if (bitmap != null) {
+            mSize += bitmap.getByteCount();
+        }
+        tile.bitmap = bitmap;
+    }
+
+    /**
+     * Returns a spare bitmap of the given size to render a tile into, or
+     * null if there is none. The bitmap leaves the cache until it is set
+     * on a tile or handed back with {@link #recycleBitmap}.
+     */
+    Bitmap takeBitmap(int width, int height) {
+        for (int i = mSpareBitmaps.size() - 1; i >= 0; i--) {
+            Bitmap bitmap = mSpareBitmaps.get(i);
+            if (bitmap.getWidth() == width && bitmap.getHeight() == height) {
+                mSize -= bitmap.getByteCount();
+                return mSpareBitmaps.remove(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Keeps a bitmap that was not set on a tile for reuse.
+     */
+    void recycleBitmap(Bitmap bitmap) {
+        mSpareBitmaps.add(bitmap);
+        mSize += bitmap.getByteCount();
+    }
+
+    /**
+     * Drops spare bitmaps, then the least recently used tiles, until the
+     * cache fits its budget.
+     */
+    void trim() {
+        while (mSize > mMaxBytes && !mSpareBitmaps.isEmpty()) {
+            Bitmap bitmap = mSpareBitmaps.remove(0);
+            mSize -= bitmap.getByteCount();
+            bitmap.recycle();
+        }
+        Iterator<Tile> it = mTiles.values().iterator();
+        while (mSize > mMaxBytes && it.hasNext()) {
+            Tile tile = it.next();
+            it.remove();
+            if (tile.bitmap != null) {
+                mSize -= tile.bitmap.getByteCount();
+                tile.bitmap.recycle();
+                tile.bitmap = null;
+            }
+        }
+    }
+
+    /**
+     * Invalidates the tiles intersecting the given part of the content.
+     */
+    void invalidate(Rect dirty) {
+        if (dirty.isEmpty()) {
+            return;
+        }
+        for (Tile tile : mTiles.values()) {
+            if (Rect.intersects(tile.bounds, dirty)) {
+                tile.invalidate();
+            }
+        }
+    }
+
+    /**
+     * Invalidates every tile, which keep showing their bitmaps meanwhile.
+     */
+    void invalidateAll() {
+        for (Tile tile : mTiles.values()) {
+            tile.invalidate();
+        }
+    }
+
+    /**
+     * Drops every tile, keeping their bitmaps for reuse.
+     */
+    void discardAll() {
+        for (Tile tile : mTiles.values()) {
+            if (tile.bitmap != null) {
+                mSpareBitmaps.add(tile.bitmap);
+                tile.bitmap = null;
+            }
+        }
+        mTiles.clear();
+        trim();
+    }
+
+    /**
+     * Drops every tile and recycles the bitmaps.
+     */
+    void clear() {
+        for (Tile tile : mTiles.values()) {
+            if (tile.bitmap != null) {
+                tile.bitmap.recycle();
+            }
+        }
+        mTiles.clear();
+        for (Bitmap bitmap : mSpareBitmaps) {
+            bitmap.recycle();
+        }
+        mSpareBitmaps.clear();
+        mSize = 0;
+    }
+}
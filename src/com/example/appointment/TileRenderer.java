@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.appointment;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.concurrent.PriorityBlockingQueue;
+
+/**
+ * Renders the tiles of a view on a small pool of render threads, so that
+ * the UI thread only draws the tiles that are ready. The most recently
+ * queued jobs are rendered first, since they are the tiles on screen.
+ * Rendered jobs are delivered on the UI thread.
+ *
+ * Only used from the UI thread. Call {@link #stop()} when the view goes
+ * away, the threads start again with the next job.
+ */
+class TileRenderer {
+
+    // The UI thread keeps a core, and there are rarely more tiles on screen
+    private static final int MAX_THREAD_COUNT = 4;
+
+    /**
+     * The work of rendering one tile.
+     */
+    static abstract class Job implements Comparable<Job>, Runnable {
+        // Set when the job is queued, later jobs are rendered first
+        long sequence;
+        private boolean mRendered;
+
+        /**
+         * Renders the tile on a render thread. Must only read what the job
+         * was given when it was created.
+         */
+        abstract void render();
+
+        /**
+         * Runs on the UI thread once the job is done.
+         *
+         * @param rendered False if the job was canceled before it was rendered
+         */
+        abstract void deliver(boolean rendered);
+
+        public final void run() {
+            deliver(mRendered);
+        }
+
+        public int compareTo(Job other) {
+            if (sequence == other.sequence) {
+                return 0;
+            }
+            return sequence > other.sequence ? -1 : 1;
+        }
+    }
+
+    private static class ShutdownJob extends Job {
+        ShutdownJob() {
+            // Ahead of every tile
+            sequence = Long.MAX_VALUE;
+        }
+
+        @Override
+        void render() {
+        }
+
+        @Override
+        void deliver(boolean rendered) {
+        }
+    }
+
+    private static class RenderThread extends Thread {
+        private final PriorityBlockingQueue<Job> mQueue;
+        private final Handler mHandler;
+
+        RenderThread(PriorityBlockingQueue<Job> queue, Handler handler) {
+            super("TileRenderer");
+            mQueue = queue;
+            mHandler = handler;
+        }
+
+        @Override
+        public void run() {
+            // The tiles are on screen, unlike the work of the loader threads
+            Process.setThreadPriority(Process.THREAD_PRIORITY_DEFAULT);
+            while (true) {
+                try {
+                    Job job = mQueue.take();
+                    if (job instanceof ShutdownJob) {
+                        return;
+                    }
+                    job.render();
+                    job.mRendered = true;
+                    mHandler.post(job);
+                } catch (InterruptedException ex) {
+                    Log.e("Cal", "TileRenderer thread interrupted!");
+                }
+            }
+        }
+    }
+
+    private final PriorityBlockingQueue<Job> mQueue = new PriorityBlockingQueue<Job>();
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ArrayList<Job> mCanceled = new ArrayList<Job>();
+    private RenderThread[] mThreads;
+    private long mSequence;
+
+    /**
+     * Queues a job ahead of the ones already queued, starting the render
+     * threads if needed.
+     */
+    void render(Job job) {
+        if (mThreads == null) {
+            startThreads();
+        }
+        job.sequence = ++mSequence;
+        mQueue.put(job);
+    }
+
+    /**
+     * Cancels every job that is not being rendered yet.
+     */
+    void cancelAll() {
+        mQueue.drainTo(mCanceled);
+        int count = mCanceled.size();
+        for (int i = 0; i < count; i++) {
+            Job job = mCanceled.get(i);
+            if (job instanceof ShutdownJob) {
+                // Still meant for a thread that is shutting down
+                mQueue.put(job);
+            } else {
+                job.deliver(false);
+            }
+        }
+        mCanceled.clear();
+    }
+
+    /**
+     * Cancels the queued jobs and stops the render threads once they are
+     * done with the jobs they are rendering.
+     */
+    void stop() {
+        cancelAll();
+        if (mThreads == null) {
+            return;
+        }
+        // Every thread takes exactly one shutdown job
+        for (int i = 0; i < mThreads.length; i++) {
+            mQueue.put(new ShutdownJob());
+        }
+        mThreads = null;
+    }
+
+    private void startThreads() {
+        int count = Math.max(Math.min(Runtime.getRuntime().availableProcessors() - 1,
+                MAX_THREAD_COUNT), 1);
+        mThreads = new RenderThread[count];
+        for (int i = 0; i < count; i++) {
+            mThreads[i] = new RenderThread(mQueue, mHandler);
+            mThreads[i].start();
+        }
+    }
+}
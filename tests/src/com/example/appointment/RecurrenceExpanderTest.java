@@ -0,0 +1,351 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.appointment;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.provider.CalendarContract;
+import android.provider.CalendarContract.Calendars;
+import android.provider.CalendarContract.Events;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cross-checks the in-process expansion of {@link RecurrenceExpander}
+ * against the expansion of the calendar provider, on recurring series
+ * inserted into a local calendar of their own: exceptions, EXDATEs, allday
+ * series, instances ending at midnight and rules left to the provider.
+ *
+ * Needs a device or emulator with the calendar provider, and the app to
+ * hold WRITE_CALENDAR.
+ */
+public class RecurrenceExpanderTest extends AndroidTestCase {
+
+    private static final String ACCOUNT_NAME = "RecurrenceExpanderTest";
+
+    private static final String CLERK_A = "Expander clerk A";
+    private static final String CLERK_B = "Expander clerk B";
+    private static final String OTHER = "Expander other";
+
+    private static final String NEW_YORK = "America/New_York";
+    private static final String BERLIN = "Europe/Berlin";
+    private static final String UTC = "UTC";
+
+    private static final long MILLIS_PER_HOUR = 60 * 60 * 1000;
+
+    // March to May 2024, across both daylight saving changes
+    private static final int START_DAY = julianDay(2024, 3, 1);
+    private static final int NUM_DAYS = 92;
+
+    private ContentResolver mResolver;
+    private String mLocalTimeZone;
+    private RecurrenceExpander mExpander;
+
+    // The series checked one by one, see setUp()
+    private long mWeeklyId;
+    private long mMovedId;
+    private long mAlldayId;
+    private long mMidnightId;
+    private long mExdate;
+    private long mMovedFrom;
+    private long mMovedTo;
+    private long mCanceled;
+    private long mAlldayExdate;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mResolver = getContext().getContentResolver();
+        mLocalTimeZone = CalendarUtils.getTimeZone(getContext(), null);
+        deleteCalendar();
+        long calendarId = insertCalendar();
+
+        // Timed weekly series, with an EXDATE, a moved and a canceled occurrence
+        long dtstart = millis(NEW_YORK, 2024, 3, 4, 9, 0);
+        mExdate = millis(NEW_YORK, 2024, 3, 13, 9, 0);
+        mMovedFrom = millis(NEW_YORK, 2024, 3, 15, 9, 0);
+        mMovedTo = millis(NEW_YORK, 2024, 3, 15, 14, 0);
+        mCanceled = millis(NEW_YORK, 2024, 3, 18, 9, 0);
+        ContentValues values = series(calendarId, CLERK_A, NEW_YORK, dtstart, "PT1H",
+                "FREQ=WEEKLY;BYDAY=MO,WE,FR");
+        values.put(Events.EXDATE, utc(mExdate));
+        mWeeklyId = insert(values);
+        mMovedId = insertException(mWeeklyId, mMovedFrom, mMovedTo, mMovedTo + MILLIS_PER_HOUR);
+        insertCanceledException(mWeeklyId, mCanceled);
+
+        // Allday series, stored in UTC, with an EXDATE
+        mAlldayExdate = millis(UTC, 2024, 3, 10, 0, 0);
+        values = series(calendarId, CLERK_A, UTC, millis(UTC, 2024, 3, 8, 0, 0), "P1D",
+                "FREQ=DAILY;COUNT=10");
+        values.put(Events.ALL_DAY, 1);
+        values.put(Events.EXDATE, utc(mAlldayExdate));
+        mAlldayId = insert(values);
+
+        // Ends at local midnight, across the spring change in New York
+        mMidnightId = insert(series(calendarId, CLERK_A, mLocalTimeZone,
+                millis(mLocalTimeZone, 2024, 3, 8, 22, 0), "PT2H", "FREQ=DAILY;COUNT=5"));
+
+        // Spans two days
+        insert(series(calendarId, CLERK_A, mLocalTimeZone,
+                millis(mLocalTimeZone, 2024, 3, 5, 23, 0), "PT2H", "FREQ=WEEKLY;COUNT=6"));
+
+        // Last Friday of the month, with an extra RDATE
+        values = series(calendarId, CLERK_A, NEW_YORK, millis(NEW_YORK, 2024, 3, 29, 12, 0),
+                "PT1H", "FREQ=MONTHLY;BYDAY=-1FR;UNTIL=20240601T000000Z");
+        values.put(Events.RDATE, utc(millis(NEW_YORK, 2024, 4, 20, 12, 0)));
+        insert(values);
+
+        insert(series(calendarId, CLERK_B, BERLIN, millis(BERLIN, 2024, 3, 5, 10, 30), "PT45M",
+                "FREQ=WEEKLY;INTERVAL=2;BYDAY=TU,TH;WKST=SU"));
+
+        // BYSETPOS is left to the provider
+        insert(series(calendarId, CLERK_B, NEW_YORK, millis(NEW_YORK, 2024, 3, 1, 16, 0),
+                "PT30M", "FREQ=MONTHLY;BYDAY=MO,TU,WE,TH,FR;BYSETPOS=-1"));
+
+        // Not one of the clerks loaded
+        insert(series(calendarId, OTHER, NEW_YORK, millis(NEW_YORK, 2024, 3, 1, 8, 0), "PT30M",
+                "FREQ=DAILY;COUNT=30"));
+
+        // A single event among the series
+        values = new ContentValues();
+        values.put(Events.CALENDAR_ID, calendarId);
+        values.put(Events.TITLE, CLERK_A);
+        values.put(Events.EVENT_TIMEZONE, NEW_YORK);
+        values.put(Events.DTSTART, millis(NEW_YORK, 2024, 4, 2, 11, 0));
+        values.put(Events.DTEND, millis(NEW_YORK, 2024, 4, 2, 12, 0));
+        insert(values);
+
+        mExpander = new RecurrenceExpander(getContext());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mExpander.release();
+        deleteCalendar();
+        super.tearDown();
+    }
+
+    public void testLoadEventsMatchesProvider() {
+        // Clerks are matched ignoring case
+        assertSameEvents(new String[] { CLERK_A, CLERK_B.toUpperCase() });
+    }
+
+    public void testClerkFilter() {
+        ArrayList<Event> events = assertSameEvents(new String[] { CLERK_B });
+        assertFalse("No events loaded", events.isEmpty());
+        for (Event e : events) {
+            assertEquals(CLERK_B, e.title.toString());
+        }
+    }
+
+    public void testDaySignaturesMatchProvider() {
+        String[] clerks = { CLERK_A, CLERK_B };
+        long[] expected = Event.loadDaySignatures(getContext(), START_DAY, NUM_DAYS, clerks);
+        long[] signatures = mExpander.loadDaySignatures(START_DAY, NUM_DAYS, clerks);
+        assertTrue(Arrays.equals(expected, signatures));
+
+        // And with the signatures of the loaded events
+        ArrayList<Event> events = load(clerks);
+        ArrayList<Event> dayEvents = new ArrayList<Event>();
+        for (int i = 0; i < NUM_DAYS; i++) {
+            int day = START_DAY + i;
+            dayEvents.clear();
+            for (Event e : events) {
+                if (e.startDay <= day && e.endDay >= day) {
+                    dayEvents.add(e);
+                }
+            }
+            assertEquals("Day " + day, Event.daySignature(dayEvents), signatures[i]);
+        }
+    }
+
+    public void testExdatesAndExceptions() {
+        ArrayList<Event> events = load(new String[] { CLERK_A });
+        boolean moved = false;
+        for (Event e : events) {
+            if (e.id == mWeeklyId) {
+                assertTrue("EXDATE expanded", e.startMillis != mExdate);
+                assertTrue("Moved occurrence expanded", e.startMillis != mMovedFrom);
+                assertTrue("Canceled occurrence expanded", e.startMillis != mCanceled);
+            } else if (e.id == mMovedId) {
+                assertEquals(mMovedTo, e.startMillis);
+                moved = true;
+            } else if (e.id == mAlldayId) {
+                assertTrue("Allday EXDATE expanded", e.startMillis != mAlldayExdate);
+            }
+        }
+        assertTrue("Moved occurrence missing", moved);
+    }
+
+    public void testAlldayDaysInUtc() {
+        int count = 0;
+        for (Event e : load(new String[] { CLERK_A })) {
+            if (e.id != mAlldayId) {
+                continue;
+            }
+            count++;
+            // Whatever the local time zone, the day is the one of the UTC date
+            assertEquals(Time.getJulianDay(e.startMillis, 0), e.startDay);
+            assertEquals(e.startDay, e.endDay);
+            assertEquals(0, e.startTime);
+            assertEquals(24 * 60, e.endTime);
+        }
+        assertEquals(9, count);
+    }
+
+    public void testMidnightEndsThePreviousDay() {
+        int count = 0;
+        for (Event e : load(new String[] { CLERK_A })) {
+            if (e.id != mMidnightId) {
+                continue;
+            }
+            count++;
+            assertEquals(e.startDay, e.endDay);
+            assertEquals(22 * 60, e.startTime);
+            assertEquals(24 * 60, e.endTime);
+        }
+        assertEquals(5, count);
+    }
+
+    /**
+     * Asserts that the expander loads the same events in the same order as
+     * the provider expansion, and returns them.
+     */
+    private ArrayList<Event> assertSameEvents(String[] clerks) {
+        ArrayList<Event> expected = new ArrayList<Event>();
+        Event.loadEvents(getContext(), expected, START_DAY, NUM_DAYS, clerks, 0,
+                new AtomicInteger(), null);
+        ArrayList<Event> events = load(clerks);
+
+        assertEquals(expected.size(), events.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Event e = expected.get(i);
+            assertTrue("Event " + i + " of " + e.title + " at " + e.startMillis,
+                    e.hasSameContent(events.get(i)));
+        }
+        return events;
+    }
+
+    private ArrayList<Event> load(String[] clerks) {
+        ArrayList<Event> events = new ArrayList<Event>();
+        mExpander.loadEvents(events, START_DAY, NUM_DAYS, clerks, 0, new AtomicInteger(), null);
+        return events;
+    }
+
+    private ContentValues series(long calendarId, String title, String timeZone, long dtstart,
+            String duration, String rrule) {
+        ContentValues values = new ContentValues();
+        values.put(Events.CALENDAR_ID, calendarId);
+        values.put(Events.TITLE, title);
+        values.put(Events.EVENT_TIMEZONE, timeZone);
+        values.put(Events.DTSTART, dtstart);
+        values.put(Events.DURATION, duration);
+        values.put(Events.RRULE, rrule);
+        return values;
+    }
+
+    private long insert(ContentValues values) {
+        Uri uri = mResolver.insert(Events.CONTENT_URI, values);
+        assertNotNull(uri);
+        return ContentUris.parseId(uri);
+    }
+
+    private long insertException(long seriesId, long originalTime, long dtstart, long dtend) {
+        ContentValues values = new ContentValues();
+        values.put(Events.ORIGINAL_INSTANCE_TIME, originalTime);
+        values.put(Events.DTSTART, dtstart);
+        values.put(Events.DTEND, dtend);
+        Uri uri = mResolver.insert(
+                ContentUris.withAppendedId(Events.CONTENT_EXCEPTION_URI, seriesId), values);
+        assertNotNull(uri);
+        return ContentUris.parseId(uri);
+    }
+
+    private void insertCanceledException(long seriesId, long originalTime) {
+        ContentValues values = new ContentValues();
+        values.put(Events.ORIGINAL_INSTANCE_TIME, originalTime);
+        values.put(Events.STATUS, Events.STATUS_CANCELED);
+        assertNotNull(mResolver.insert(
+                ContentUris.withAppendedId(Events.CONTENT_EXCEPTION_URI, seriesId), values));
+    }
+
+    private long insertCalendar() {
+        ContentValues values = new ContentValues();
+        values.put(Calendars.ACCOUNT_NAME, ACCOUNT_NAME);
+        values.put(Calendars.ACCOUNT_TYPE, CalendarContract.ACCOUNT_TYPE_LOCAL);
+        values.put(Calendars.NAME, ACCOUNT_NAME);
+        values.put(Calendars.CALENDAR_DISPLAY_NAME, ACCOUNT_NAME);
+        values.put(Calendars.CALENDAR_COLOR, 0xff33b5e5);
+        values.put(Calendars.CALENDAR_ACCESS_LEVEL, Calendars.CAL_ACCESS_OWNER);
+        values.put(Calendars.OWNER_ACCOUNT, ACCOUNT_NAME);
+        values.put(Calendars.VISIBLE, 1);
+        values.put(Calendars.SYNC_EVENTS, 1);
+        Uri uri = mResolver.insert(asSyncAdapter(Calendars.CONTENT_URI), values);
+        assertNotNull(uri);
+        return ContentUris.parseId(uri);
+    }
+
+    /**
+     * Deletes the calendar of the test, and its events with it.
+     */
+    private void deleteCalendar() {
+        mResolver.delete(asSyncAdapter(Calendars.CONTENT_URI),
+                Calendars.ACCOUNT_NAME + "=? AND " + Calendars.ACCOUNT_TYPE + "=?",
+                new String[] { ACCOUNT_NAME, CalendarContract.ACCOUNT_TYPE_LOCAL });
+    }
+
+    private static Uri asSyncAdapter(Uri uri) {
+        return uri.buildUpon()
+                .appendQueryParameter(CalendarContract.CALLER_IS_SYNCADAPTER, "true")
+                .appendQueryParameter(Calendars.ACCOUNT_NAME, ACCOUNT_NAME)
+                .appendQueryParameter(Calendars.ACCOUNT_TYPE, CalendarContract.ACCOUNT_TYPE_LOCAL)
+                .build();
+    }
+
+    private static long millis(String timeZone, int year, int month, int day, int hour,
+            int minute) {
+        Calendar calendar = new GregorianCalendar(TimeZone.getTimeZone(timeZone));
+        calendar.clear();
+        calendar.set(year, month - 1, day, hour, minute);
+        return calendar.getTimeInMillis();
+    }
+
+    private static int julianDay(int year, int month, int day) {
+        return Time.getJulianDay(millis(UTC, year, month, day, 0, 0), 0);
+    }
+
+    /**
+     * Formats a time the way EXDATE and RDATE store it.
+     */
+    private static String utc(long millis) {
+        Calendar calendar = new GregorianCalendar(TimeZone.getTimeZone(UTC));
+        calendar.setTimeInMillis(millis);
+        return String.format("%04d%02d%02dT%02d%02d%02dZ", calendar.get(Calendar.YEAR),
+                calendar.get(Calendar.MONTH) + 1, calendar.get(Calendar.DAY_OF_MONTH),
+                calendar.get(Calendar.HOUR_OF_DAY), calendar.get(Calendar.MINUTE),
+                calendar.get(Calendar.SECOND));
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.appointment;
+
+import junit.framework.TestCase;
+
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Checks the rules and occurrences of {@link RecurrenceRule} against the
+ * examples of RFC 2445. Only uses java.util, so it runs on a plain JVM.
+ */
+public class RecurrenceRuleTest extends TestCase {
+
+    private static final TimeZone NEW_YORK = TimeZone.getTimeZone("America/New_York");
+    private static final TimeZone BERLIN = TimeZone.getTimeZone("Europe/Berlin");
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    private static final long MILLIS_PER_HOUR = 60 * 60 * 1000;
+
+    public void testWeeklyWithIntervalAndWeekStart() {
+        RecurrenceRule rule =
+                RecurrenceRule.parse("FREQ=WEEKLY;INTERVAL=2;COUNT=4;BYDAY=TU,SU;WKST=MO");
+        assertEquals(RecurrenceRule.WEEKLY, rule.freq);
+        assertEquals(2, rule.interval);
+        assertEquals(4, rule.count);
+        assertEquals(Calendar.MONDAY, rule.weekStart);
+        assertExpansion(new String[] {
+                "19970805T090000", "19970810T090000", "19970819T090000", "19970824T090000"
+        }, rule, NEW_YORK, "19970805T090000");
+
+        // The week start moves the Sundays to the other weeks
+        assertExpansion(new String[] {
+                "19970805T090000", "19970817T090000", "19970819T090000", "19970831T090000"
+        }, "FREQ=WEEKLY;INTERVAL=2;COUNT=4;BYDAY=TU,SU;WKST=SU", NEW_YORK, "19970805T090000");
+    }
+
+    public void testMonthlyNthWeekday() {
+        assertExpansion(new String[] {
+                "19970905T090000", "19971003T090000", "19971107T090000", "19971205T090000"
+        }, "FREQ=MONTHLY;COUNT=4;BYDAY=1FR", NEW_YORK, "19970905T090000");
+    }
+
+    public void testMonthlyLastWeekdays() {
+        assertExpansion(new String[] {
+                "19970922T090000", "19971020T090000", "19971117T090000", "19971222T090000",
+                "19980119T090000", "19980216T090000"
+        }, "FREQ=MONTHLY;COUNT=6;BYDAY=-2MO", NEW_YORK, "19970922T090000");
+
+        assertExpansion(new String[] {
+                "19970928T090000", "19971026T090000", "19971130T090000"
+        }, "FREQ=MONTHLY;COUNT=3;BYDAY=-1SU", NEW_YORK, "19970928T090000");
+    }
+
+    public void testYearlyNthWeekdayOfMonth() {
+        assertExpansion(new String[] {
+                "19971127T090000", "19981126T090000", "19991125T090000"
+        }, "FREQ=YEARLY;COUNT=3;BYMONTH=11;BYDAY=4TH", NEW_YORK, "19971127T090000");
+    }
+
+    public void testMonthDay31SkipsShorterMonths() {
+        assertExpansion(new String[] {
+                "20240131T090000", "20240331T090000", "20240531T090000", "20240731T090000"
+        }, "FREQ=MONTHLY;COUNT=4;BYMONTHDAY=31", NEW_YORK, "20240131T090000");
+
+        // Counting from the end of the month hits every month
+        assertExpansion(new String[] {
+                "20240131T090000", "20240229T090000", "20240331T090000"
+        }, "FREQ=MONTHLY;COUNT=3;BYMONTHDAY=-1", NEW_YORK, "20240131T090000");
+    }
+
+    public void testCount() {
+        RecurrenceRule rule = RecurrenceRule.parse("FREQ=DAILY;COUNT=3");
+        long dtstart = RecurrenceRule.parseDateTime("20240101T090000", UTC);
+        assertEquals(Arrays.asList("20240101T090000", "20240102T090000", "20240103T090000"),
+                Arrays.asList(expand(rule, UTC, dtstart, dtstart, Long.MAX_VALUE)));
+
+        // The occurrences before the range still count
+        long rangeStart = RecurrenceRule.parseDateTime("20240102T000000", UTC);
+        assertEquals(Arrays.asList("20240102T090000", "20240103T090000"),
+                Arrays.asList(expand(rule, UTC, dtstart, rangeStart, Long.MAX_VALUE)));
+    }
+
+    public void testUntil() {
+        RecurrenceRule rule = RecurrenceRule.parse("FREQ=DAILY;UNTIL=20240103T090000Z");
+        assertEquals(RecurrenceRule.parseDateTime("20240103T090000", UTC), rule.until);
+        // UNTIL is inclusive
+        assertExpansion(new String[] {
+                "20240101T090000", "20240102T090000", "20240103T090000"
+        }, rule, UTC, "20240101T090000");
+
+        // A date is taken as midnight UTC
+        assertExpansion(new String[] {
+                "20240101T090000", "20240102T090000"
+        }, "FREQ=DAILY;UNTIL=20240103", UTC, "20240101T090000");
+    }
+
+    public void testDaylightSavingKeepsWallClockTime() {
+        // Clocks go forward in New York on 2024-03-10
+        RecurrenceRule rule = RecurrenceRule.parse("FREQ=DAILY;COUNT=3");
+        long dtstart = RecurrenceRule.parseDateTime("20240309T090000", NEW_YORK);
+        Calendar calendar = new GregorianCalendar(NEW_YORK);
+        RecurrenceRule.Occurrences out = new RecurrenceRule.Occurrences();
+        rule.expand(calendar, dtstart, dtstart, Long.MAX_VALUE, out);
+        assertEquals(3, out.size);
+        assertEquals(23 * MILLIS_PER_HOUR, out.times[1] - out.times[0]);
+        assertEquals(24 * MILLIS_PER_HOUR, out.times[2] - out.times[1]);
+        assertEquals(Arrays.asList("20240309T090000", "20240310T090000", "20240311T090000"),
+                Arrays.asList(format(out, NEW_YORK)));
+    }
+
+    public void testDaylightSavingAtRangeStart() {
+        // Clocks go forward in Berlin on 2024-03-31, so the range starts
+        // an hour short of five weeks after the first occurrence
+        RecurrenceRule rule = RecurrenceRule.parse("FREQ=WEEKLY");
+        long dtstart = RecurrenceRule.parseDateTime("20240301T000000", BERLIN);
+        long rangeStart = RecurrenceRule.parseDateTime("20240405T000000", BERLIN);
+        long rangeEnd = RecurrenceRule.parseDateTime("20240413T000000", BERLIN);
+        assertEquals(Arrays.asList("20240405T000000", "20240412T000000"),
+                Arrays.asList(expand(rule, BERLIN, dtstart, rangeStart, rangeEnd)));
+    }
+
+    public void testUnsupportedRules() {
+        assertUnsupported("FREQ=MONTHLY;BYSETPOS=-1;BYDAY=MO,TU,WE,TH,FR");
+        assertUnsupported("FREQ=WEEKLY;BYDAY=1MO");
+        assertUnsupported("FREQ=YEARLY;BYDAY=20MO");
+        assertUnsupported("FREQ=HOURLY");
+        assertUnsupported("INTERVAL=2");
+        assertUnsupported("FREQ=MONTHLY;BYMONTHDAY=32");
+    }
+
+    private static void assertExpansion(String[] expected, String rule, TimeZone timeZone,
+            String dtstart) {
+        assertExpansion(expected, RecurrenceRule.parse(rule), timeZone, dtstart);
+    }
+
+    private static void assertExpansion(String[] expected, RecurrenceRule rule,
+            TimeZone timeZone, String dtstart) {
+        long start = RecurrenceRule.parseDateTime(dtstart, timeZone);
+        assertEquals(Arrays.asList(expected),
+                Arrays.asList(expand(rule, timeZone, start, start, Long.MAX_VALUE)));
+    }
+
+    private static void assertUnsupported(String rule) {
+        try {
+            RecurrenceRule.parse(rule);
+            fail("Parsed " + rule);
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    /**
+     * Returns the occurrences as local date-times of the time zone.
+     */
+    private static String[] expand(RecurrenceRule rule, TimeZone timeZone, long dtstart,
+            long rangeStart, long rangeEnd) {
+        RecurrenceRule.Occurrences out = new RecurrenceRule.Occurrences();
+        rule.expand(new GregorianCalendar(timeZone), dtstart, rangeStart, rangeEnd, out);
+        return format(out, timeZone);
+    }
+
+    private static String[] format(RecurrenceRule.Occurrences occurrences, TimeZone timeZone) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd'T'HHmmss", Locale.US);
+        format.setTimeZone(timeZone);
+        String[] times = new String[occurrences.size];
+        for (int i = 0; i < occurrences.size; i++) {
+            times[i] = format.format(occurrences.times[i]);
+        }
+        return times;
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.appointment;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.provider.CalendarContract;
+import android.provider.CalendarContract.Calendars;
+import android.provider.CalendarContract.Events;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks that the single instances query of {@link Event#loadEvents} returns
+ * the same events in the same order as one query per kind of event: the
+ * timed events sorted by SORT_EVENTS_BY, then the events displayed as allday
+ * sorted by SORT_ALLDAY_BY. Also times both ways, see {@link #testLoadTimes}.
+ *
+ * Needs a device or emulator with the calendar provider, and the app to
+ * hold WRITE_CALENDAR.
+ */
+public class SinglePassQueryTest extends AndroidTestCase {
+
+    private static final String TAG = "SinglePassQueryTest";
+
+    private static final String ACCOUNT_NAME = "SinglePassQueryTest";
+
+    private static final String CLERK_A = "Single pass A";
+    private static final String CLERK_B = "Single pass B";
+    private static final String CLERK_C = "Single pass C";
+    private static final String[] CLERKS = { CLERK_A, CLERK_B, CLERK_C };
+
+    private static final String UTC = "UTC";
+
+    // March 2024, across the daylight saving change of most time zones
+    private static final int START_DAY = julianDay(2024, 3, 1);
+    private static final int NUM_DAYS = 31;
+
+    private static final int TIMED_LOADS = 20;
+
+    private ContentResolver mResolver;
+    private String mTimeZone;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mResolver = getContext().getContentResolver();
+        mTimeZone = CalendarUtils.getTimeZone(getContext(), null);
+        deleteCalendar();
+        long calendarId = insertCalendar();
+
+        // Daily events starting together, some ending together too
+        insertSeries(calendarId, CLERK_B, mTimeZone, millis(mTimeZone, 2024, 3, 1, 9, 0), "PT1H",
+                false);
+        insertSeries(calendarId, CLERK_A, mTimeZone, millis(mTimeZone, 2024, 3, 1, 9, 0), "PT1H",
+                false);
+        insertSeries(calendarId, CLERK_C, mTimeZone, millis(mTimeZone, 2024, 3, 1, 9, 0), "PT2H",
+                false);
+        // Crosses midnight, but is not displayed as allday
+        insertSeries(calendarId, CLERK_A, mTimeZone, millis(mTimeZone, 2024, 3, 2, 22, 0), "PT4H",
+                false);
+
+        // Allday events on the same days, some spanning more of them
+        insertEvent(calendarId, CLERK_C, UTC, millis(UTC, 2024, 3, 5, 0, 0),
+                millis(UTC, 2024, 3, 8, 0, 0), true);
+        insertEvent(calendarId, CLERK_A, UTC, millis(UTC, 2024, 3, 5, 0, 0),
+                millis(UTC, 2024, 3, 8, 0, 0), true);
+        insertEvent(calendarId, CLERK_B, UTC, millis(UTC, 2024, 3, 5, 0, 0),
+                millis(UTC, 2024, 3, 6, 0, 0), true);
+        insertSeries(calendarId, CLERK_B, UTC, millis(UTC, 2024, 3, 11, 0, 0), "P1D", true);
+
+        // Timed, but a day or longer, so displayed as allday
+        insertEvent(calendarId, CLERK_B, mTimeZone, millis(mTimeZone, 2024, 3, 5, 20, 0),
+                millis(mTimeZone, 2024, 3, 7, 8, 0), false);
+        insertEvent(calendarId, CLERK_A, mTimeZone, millis(mTimeZone, 2024, 3, 12, 8, 0),
+                millis(mTimeZone, 2024, 3, 13, 8, 0), false);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Event.setSinglePassQuery(true);
+        deleteCalendar();
+        super.tearDown();
+    }
+
+    public void testSameEventsInSameOrder() {
+        ArrayList<Event> single = load(true);
+        ArrayList<Event> split = load(false);
+
+        assertFalse("No events loaded", split.isEmpty());
+        assertEquals(split.size(), single.size());
+        for (int i = 0; i < split.size(); i++) {
+            Event e = split.get(i);
+            assertTrue("Event " + i + " of " + e.title + " at " + e.startMillis,
+                    e.hasSameContent(single.get(i)));
+        }
+    }
+
+    /**
+     * Not a check, but a harness: logs the median time of loading the month
+     * both ways, to compare them on a device.
+     */
+    public void testLoadTimes() {
+        long[] single = new long[TIMED_LOADS];
+        long[] split = new long[TIMED_LOADS];
+        // Alternate the two so that neither gets the warmer caches
+        for (int i = 0; i < TIMED_LOADS; i++) {
+            single[i] = timeLoad(true);
+            split[i] = timeLoad(false);
+        }
+        Arrays.sort(single);
+        Arrays.sort(split);
+        Log.i(TAG, "Median of " + TIMED_LOADS + " loads of " + NUM_DAYS + " days: single query "
+                + single[TIMED_LOADS / 2] + "ms, two queries " + split[TIMED_LOADS / 2] + "ms");
+    }
+
+    private long timeLoad(boolean singlePass) {
+        long start = SystemClock.elapsedRealtime();
+        load(singlePass);
+        return SystemClock.elapsedRealtime() - start;
+    }
+
+    private ArrayList<Event> load(boolean singlePass) {
+        Event.setSinglePassQuery(singlePass);
+        ArrayList<Event> events = new ArrayList<Event>();
+        Event.loadEvents(getContext(), events, START_DAY, NUM_DAYS, CLERKS, 0,
+                new AtomicInteger(), null);
+        return events;
+    }
+
+    private void insertSeries(long calendarId, String title, String timeZone, long dtstart,
+            String duration, boolean allDay) {
+        ContentValues values = new ContentValues();
+        values.put(Events.CALENDAR_ID, calendarId);
+        values.put(Events.TITLE, title);
+        values.put(Events.EVENT_TIMEZONE, timeZone);
+        values.put(Events.DTSTART, dtstart);
+        values.put(Events.DURATION, duration);
+        values.put(Events.RRULE, "FREQ=DAILY;COUNT=20");
+        values.put(Events.ALL_DAY, allDay ? 1 : 0);
+        assertNotNull(mResolver.insert(Events.CONTENT_URI, values));
+    }
+
+    private void insertEvent(long calendarId, String title, String timeZone, long dtstart,
+            long dtend, boolean allDay) {
+        ContentValues values = new ContentValues();
+        values.put(Events.CALENDAR_ID, calendarId);
+        values.put(Events.TITLE, title);
+        values.put(Events.EVENT_TIMEZONE, timeZone);
+        values.put(Events.DTSTART, dtstart);
+        values.put(Events.DTEND, dtend);
+        values.put(Events.ALL_DAY, allDay ? 1 : 0);
+        assertNotNull(mResolver.insert(Events.CONTENT_URI, values));
+    }
+
+    private long insertCalendar() {
+        ContentValues values = new ContentValues();
+        values.put(Calendars.ACCOUNT_NAME, ACCOUNT_NAME);
+        values.put(Calendars.ACCOUNT_TYPE, CalendarContract.ACCOUNT_TYPE_LOCAL);
+        values.put(Calendars.NAME, ACCOUNT_NAME);
+        values.put(Calendars.CALENDAR_DISPLAY_NAME, ACCOUNT_NAME);
+        values.put(Calendars.CALENDAR_COLOR, 0xff33b5e5);
+        values.put(Calendars.CALENDAR_ACCESS_LEVEL, Calendars.CAL_ACCESS_OWNER);
+        values.put(Calendars.OWNER_ACCOUNT, ACCOUNT_NAME);
+        values.put(Calendars.VISIBLE, 1);
+        values.put(Calendars.SYNC_EVENTS, 1);
+        Uri uri = mResolver.insert(asSyncAdapter(Calendars.CONTENT_URI), values);
+        assertNotNull(uri);
+        return ContentUris.parseId(uri);
+    }
+
+    /**
+     * Deletes the calendar of the test, and its events with it.
+     */
+    private void deleteCalendar() {
+        mResolver.delete(asSyncAdapter(Calendars.CONTENT_URI),
+                Calendars.ACCOUNT_NAME + "=? AND " + Calendars.ACCOUNT_TYPE + "=?",
+                new String[] { ACCOUNT_NAME, CalendarContract.ACCOUNT_TYPE_LOCAL });
+    }
+
+    private static Uri asSyncAdapter(Uri uri) {
+        return uri.buildUpon()
+                .appendQueryParameter(CalendarContract.CALLER_IS_SYNCADAPTER, "true")
+                .appendQueryParameter(Calendars.ACCOUNT_NAME, ACCOUNT_NAME)
+                .appendQueryParameter(Calendars.ACCOUNT_TYPE, CalendarContract.ACCOUNT_TYPE_LOCAL)
+                .build();
+    }
+
+    private static long millis(String timeZone, int year, int month, int day, int hour,
+            int minute) {
+        Calendar calendar = new GregorianCalendar(TimeZone.getTimeZone(timeZone));
+        calendar.clear();
+        calendar.set(year, month - 1, day, hour, minute);
+        return calendar.getTimeInMillis();
+    }
+
+    private static int julianDay(int year, int month, int day) {
+        return Time.getJulianDay(millis(UTC, year, month, day, 0, 0), 0);
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.appointment;
+
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.text.format.Time;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads months of {@link SyntheticEventSource} appointments through an
+ * {@link EventLoader}, the way the views do, checks what comes back and
+ * logs how long the loads took.
+ *
+ * The source only needs Event and CancellationSignal, but those and the
+ * loader need the Android classes, so this runs on a device or emulator.
+ */
+public class SyntheticLoadTest extends InstrumentationTestCase {
+
+    private static final String TAG = "SyntheticLoadTest";
+
+    private static final int NUM_CLERKS = 50;
+    private static final int APPOINTMENTS_PER_DAY = 20;
+    private static final long SEED = 42;
+
+    private static final int NUM_DAYS = 31;
+    private static final int NUM_MONTHS = 6;
+    private static final int START_DAY = Time.getJulianDay(
+            System.currentTimeMillis(), 0);
+
+    private static final long TIMEOUT_SECONDS = 30;
+
+    private SyntheticEventSource mSource;
+    private EventLoader mLoader;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mSource = new SyntheticEventSource(NUM_CLERKS, APPOINTMENTS_PER_DAY, SEED);
+        // The service posts to a handler of the UI thread
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mLoader = new EventLoader(getInstrumentation().getTargetContext(), mSource);
+                // The snapshot is kept for the calendar provider, not for synthetic days
+                mLoader.setSnapshotDays(0);
+                mLoader.startBackgroundThread();
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mLoader.release();
+            }
+        });
+        super.tearDown();
+    }
+
+    public void testLoadMonths() throws Exception {
+        long[] loadTimes = new long[NUM_MONTHS];
+        long[] cachedTimes = new long[NUM_MONTHS];
+        for (int i = 0; i < NUM_MONTHS; i++) {
+            int startDay = START_DAY + i * NUM_DAYS;
+
+            long start = SystemClock.elapsedRealtime();
+            ArrayList<Event> events = load(startDay);
+            loadTimes[i] = SystemClock.elapsedRealtime() - start;
+            assertEquals(NUM_CLERKS * APPOINTMENTS_PER_DAY * NUM_DAYS, events.size());
+            assertDaySignatures(startDay, events);
+
+            // Served from the cache this time, with the same events
+            start = SystemClock.elapsedRealtime();
+            ArrayList<Event> cached = load(startDay);
+            cachedTimes[i] = SystemClock.elapsedRealtime() - start;
+            assertSameEvents(events, cached);
+        }
+        Arrays.sort(loadTimes);
+        Arrays.sort(cachedTimes);
+        Log.i(TAG, "Median of " + NUM_MONTHS + " loads of " + NUM_DAYS + " days of "
+                + NUM_CLERKS + " clerks: " + loadTimes[NUM_MONTHS / 2] + "ms, cached "
+                + cachedTimes[NUM_MONTHS / 2] + "ms");
+    }
+
+    public void testSameSeedSameEvents() throws Exception {
+        ArrayList<Event> events = load(START_DAY);
+
+        // Loaded straight from a source of its own
+        ArrayList<Event> expected = new ArrayList<Event>();
+        new SyntheticEventSource(NUM_CLERKS, APPOINTMENTS_PER_DAY, SEED).loadEvents(expected,
+                START_DAY, NUM_DAYS, 0, new AtomicInteger(), null);
+        assertSameEvents(expected, events);
+    }
+
+    public void testClerks() throws Exception {
+        final String[] clerks = { "1", "2", "3" };
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mLoader.setClerks(clerks);
+            }
+        });
+        ArrayList<Event> events = load(START_DAY);
+        assertEquals(clerks.length * APPOINTMENTS_PER_DAY * NUM_DAYS, events.size());
+        for (Event e : events) {
+            assertTrue(e.title.toString(), Arrays.asList(clerks).contains(e.title.toString()));
+        }
+    }
+
+    /**
+     * Loads a month of events starting at startDay through the loader and
+     * waits for them.
+     */
+    private ArrayList<Event> load(final int startDay) throws InterruptedException {
+        final ArrayList<Event> events = new ArrayList<Event>();
+        final CountDownLatch done = new CountDownLatch(1);
+        final boolean[] canceled = new boolean[1];
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mLoader.loadEventsInBackground(NUM_DAYS, events, startDay, new Runnable() {
+                    @Override
+                    public void run() {
+                        done.countDown();
+                    }
+                }, new Runnable() {
+                    @Override
+                    public void run() {
+                        canceled[0] = true;
+                        done.countDown();
+                    }
+                });
+            }
+        });
+        assertTrue("Load of day " + startDay + " timed out",
+                done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertFalse("Load of day " + startDay + " canceled", canceled[0]);
+        return events;
+    }
+
+    /**
+     * Checks that the events of each day make up the signature the source
+     * gives that day.
+     */
+    private void assertDaySignatures(int startDay, ArrayList<Event> events) {
+        long[] signatures = mSource.loadDaySignatures(startDay, NUM_DAYS);
+        ArrayList<Event> dayEvents = new ArrayList<Event>();
+        for (int i = 0; i < NUM_DAYS; i++) {
+            int day = startDay + i;
+            dayEvents.clear();
+            for (Event e : events) {
+                if (e.startDay == day) {
+                    dayEvents.add(e);
+                }
+            }
+            assertEquals("Day " + day, signatures[i], Event.daySignature(dayEvents));
+        }
+    }
+
+    private static void assertSameEvents(ArrayList<Event> expected, ArrayList<Event> events) {
+        assertEquals(expected.size(), events.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertTrue("Event " + i, expected.get(i).hasSameContent(events.get(i)));
+        }
+    }
+}